@@ -25,6 +25,7 @@ import android.graphics.drawable.Drawable;
 import android.content.Intent;
 import android.os.Build;
 import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.text.format.DateUtils;
 import android.util.Log;
@@ -38,6 +39,7 @@ import java.io.File;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import cx.ring.R;
 import cx.ring.contacts.AvatarFactory;
@@ -84,7 +86,7 @@ public class ConversationAdapter extends RecyclerView.Adapter<ConversationViewHo
      *
      * @param list an arraylist of IConversationElement
      */
-    public void updateDataset(final ArrayList<IConversationElement> list) {
+    public void updateDataset(final List<IConversationElement> list) {
         Log.d(TAG, "updateDataset: list size=" + list.size());
 
         if (list.size() > mConversationElements.size()) {
@@ -96,6 +98,82 @@ public class ConversationAdapter extends RecyclerView.Adapter<ConversationViewHo
         notifyDataSetChanged();
     }
 
+    /**
+     * Updates the dataset after older elements have been loaded at the beginning of the conversation.
+     * Only the older elements are notified as inserted, and the elements added at the end since the last update,
+     * unless elements have been inserted among the displayed ones.
+     *
+     * @param list the whole conversation, older elements included
+     */
+    public void updateOlderDataset(final List<IConversationElement> list) {
+        Log.d(TAG, "updateOlderDataset: list size=" + list.size());
+
+        final List<IConversationElement> oldList = new ArrayList<>(mConversationElements);
+        mConversationElements.clear();
+        mConversationElements.addAll(list);
+        if (oldList.isEmpty()) {
+            notifyDataSetChanged();
+            return;
+        }
+
+        int prefix = indexOf(list, oldList.get(0));
+        if (prefix >= 0 && isSameRange(list, prefix, oldList)) {
+            int suffix = list.size() - prefix - oldList.size();
+            notifyItemRangeInserted(0, prefix);
+            if (suffix > 0) {
+                notifyItemRangeInserted(prefix + oldList.size(), suffix);
+            }
+            return;
+        }
+
+        // a page has been merged among the displayed elements
+        DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldList.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return list.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldList.get(oldItemPosition) == list.get(newItemPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return true;
+            }
+        }).dispatchUpdatesTo(this);
+    }
+
+    private static int indexOf(List<IConversationElement> list, IConversationElement element) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the elements of the list from the start position are the elements of the range, in the same order
+     */
+    private static boolean isSameRange(List<IConversationElement> list, int start, List<IConversationElement> range) {
+        if (start + range.size() > list.size()) {
+            return false;
+        }
+        for (int i = 0; i < range.size(); i++) {
+            if (list.get(start + i) != range.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Updates the contact photo to use for this conversation
      *
@@ -33,17 +33,30 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import cx.ring.R;
 import cx.ring.contacts.AvatarFactory;
 import cx.ring.smartlist.SmartListViewModel;
+import cx.ring.utils.Log;
 import cx.ring.viewholders.SmartListViewHolder;
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
 
 public class SmartListAdapter extends RecyclerView.Adapter<SmartListViewHolder> {
 
+    private static final String TAG = SmartListAdapter.class.getSimpleName();
+
     private ArrayList<SmartListViewModel> mSmartListViewModels;
     private SmartListViewHolder.SmartListListeners listener;
 
+    // target of the diff being computed, null if none
+    private ArrayList<SmartListViewModel> mPendingList;
+    private Disposable mDiffDisposable;
+    private int mDiffGeneration = 0;
+
     public SmartListAdapter(ArrayList<SmartListViewModel> smartListViewModels, SmartListViewHolder.SmartListListeners listener) {
         this.listener = listener;
         this.mSmartListViewModels = new ArrayList<>();
@@ -110,13 +123,70 @@ public class SmartListAdapter extends RecyclerView.Adapter<SmartListViewHolder>
         return mSmartListViewModels.size();
     }
 
+    /**
+     * Replaces the list: the diff is computed on the computation scheduler, only its result is applied on the main thread
+     */
     public void update(ArrayList<SmartListViewModel> smartListViewModels) {
-        final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new SmartListDiffUtil(this.mSmartListViewModels, smartListViewModels));
+        mPendingList = new ArrayList<>(smartListViewModels);
+        computeDiff();
+    }
 
-        this.mSmartListViewModels.clear();
-        this.mSmartListViewModels.addAll(smartListViewModels);
+    private void computeDiff() {
+        if (mDiffDisposable != null) {
+            // superseded diff
+            mDiffDisposable.dispose();
+        }
+        final int generation = ++mDiffGeneration;
+        final List<SmartListViewModel> oldList = new ArrayList<>(mSmartListViewModels);
+        final List<SmartListViewModel> newList = new ArrayList<>(mPendingList);
+        mDiffDisposable = Single.fromCallable(() -> DiffUtil.calculateDiff(new SmartListDiffUtil(oldList, newList)))
+                .subscribeOn(Schedulers.computation())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(diffResult -> {
+                    if (generation != mDiffGeneration) {
+                        return;
+                    }
+                    mPendingList = null;
+                    mSmartListViewModels.clear();
+                    mSmartListViewModels.addAll(newList);
+                    diffResult.dispatchUpdatesTo(this);
+                }, e -> Log.e(TAG, "Error while computing the smart list diff", e));
+    }
 
-        diffResult.dispatchUpdatesTo(this);
+    /**
+     * Replaces a single row, moved from oldPosition (-1 for a new row) to newPosition
+     */
+    public void updateItem(SmartListViewModel smartListViewModel, int oldPosition, int newPosition) {
+        if (mPendingList != null) {
+            // the positions are relative to the list being diffed
+            if (oldPosition >= 0) {
+                mPendingList.remove(oldPosition);
+            }
+            mPendingList.add(newPosition, smartListViewModel);
+            computeDiff();
+            return;
+        }
+        if (oldPosition < 0) {
+            mSmartListViewModels.add(newPosition, smartListViewModel);
+            notifyItemInserted(newPosition);
+            return;
+        }
+        mSmartListViewModels.remove(oldPosition);
+        mSmartListViewModels.add(newPosition, smartListViewModel);
+        if (oldPosition != newPosition) {
+            notifyItemMoved(oldPosition, newPosition);
+        }
+        notifyItemChanged(newPosition);
+    }
+
+    public void removeItem(int position) {
+        if (mPendingList != null) {
+            mPendingList.remove(position);
+            computeDiff();
+            return;
+        }
+        mSmartListViewModels.remove(position);
+        notifyItemRemoved(position);
     }
 
     private String getLastInteractionSummary(int type, String lastInteraction, Context context) {
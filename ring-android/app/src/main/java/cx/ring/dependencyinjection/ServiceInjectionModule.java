@@ -19,6 +19,7 @@
  */
 package cx.ring.dependencyinjection;
 
+import android.app.ActivityManager;
 import android.content.Context;
 
 import java.util.concurrent.ExecutorService;
@@ -172,6 +173,11 @@ public class ServiceInjectionModule {
             AccountService accountService) {
         ConversationFacade conversationFacade = new ConversationFacade(historyService, callService, contactService, accountService);
         mRingApplication.getRingInjectionComponent().inject(conversationFacade);
+        // conversation histories may use 1/32 of the heap of the application
+        ActivityManager activityManager = (ActivityManager) mRingApplication.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            conversationFacade.setConversationCacheBudget(activityManager.getMemoryClass() * 1024L * 1024L / 32);
+        }
         return conversationFacade;
     }
 
@@ -195,6 +201,13 @@ public class ServiceInjectionModule {
         return Executors.newFixedThreadPool(5);
     }
 
+    @Provides
+    @Named("HistoryExecutor")
+    @Singleton
+    ExecutorService provideHistoryExecutorService() {
+        return Executors.newSingleThreadExecutor();
+    }
+
     @Provides
     @Singleton
     ScheduledExecutorService provideScheduledExecutorService() {
@@ -152,6 +152,18 @@ public class ConversationFragment extends BaseFragment<ConversationPresenter> im
         });
     }
 
+    @Override
+    public void displayOlderHistory(final Conversation conversation) {
+        if (conversation == null) {
+            return;
+        }
+        getActivity().runOnUiThread(() -> {
+            if (mAdapter != null) {
+                mAdapter.updateOlderDataset(conversation.getAggregateHistory());
+            }
+        });
+    }
+
     @Override
     public int getLayout() {
         return R.layout.frag_conversation;
@@ -177,6 +189,15 @@ public class ConversationFragment extends BaseFragment<ConversationPresenter> im
             mHistList.setLayoutManager(mLayoutManager);
             mHistList.setAdapter(mAdapter);
             mHistList.setItemAnimator(new DefaultItemAnimator());
+            mHistList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                    // load older history when the top of the conversation is reached
+                    if (dy < 0 && mLayoutManager.findFirstVisibleItemPosition() == 0) {
+                        presenter.loadMoreHistory();
+                    }
+                }
+            });
         }
 
         // reload delete conversation state (before rotation)
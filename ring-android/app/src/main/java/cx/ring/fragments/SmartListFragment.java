@@ -496,6 +496,22 @@ public class SmartListFragment extends BaseFragment<SmartListPresenter> implemen
         mSmartListAdapter.update(smartListViewModels);
     }
 
+    @Override
+    public void updateListItem(SmartListViewModel smartListViewModel, int oldPosition, int newPosition) {
+        if (mSmartListAdapter == null) {
+            return;
+        }
+        mSmartListAdapter.updateItem(smartListViewModel, oldPosition, newPosition);
+    }
+
+    @Override
+    public void removeListItem(int position) {
+        if (mSmartListAdapter == null) {
+            return;
+        }
+        mSmartListAdapter.removeItem(position);
+    }
+
     @Override
     public void goToConversation(String accountId, String contactId) {
         if (mSearchMenuItem != null) {
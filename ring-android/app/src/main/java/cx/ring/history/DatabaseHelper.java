@@ -33,13 +33,17 @@ import com.j256.ormlite.table.TableUtils;
 import java.sql.SQLException;
 import java.util.ArrayList;
 
+import cx.ring.model.ConversationSummary;
 import cx.ring.model.DataTransfer;
 import cx.ring.model.HistoryCall;
 import cx.ring.model.HistoryText;
+import cx.ring.services.HistoryService;
 
 /*
  * Database History Version
  * 7 : changing columns names. See https://gerrit-ring.savoirfairelinux.com/#/c/4297
+ * 10 : composite (account, peer, timestamp) indexes on the history tables
+ * 11 : conversation_summary table
  */
 
 /**
@@ -50,11 +54,22 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     private static final String TAG = DatabaseHelper.class.getSimpleName();
     private static final String DATABASE_NAME = "history.db";
     // any time you make changes to your database objects, you may have to increase the database version
-    private static final int DATABASE_VERSION = 9;
+    private static final int DATABASE_VERSION = 11;
+
+    // per-contact history queries filter on account and peer, then order by timestamp
+    static final String[] HISTORY_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS `historycall_account_number_timestamp_idx` ON `" + HistoryCall.TABLE_NAME + "` ( `"
+                    + HistoryCall.COLUMN_ACCOUNT_ID_NAME + "`, `" + HistoryCall.COLUMN_NUMBER_NAME + "`, `" + HistoryCall.COLUMN_TIMESTAMP_START_NAME + "` );",
+            "CREATE INDEX IF NOT EXISTS `historytext_account_number_timestamp_idx` ON `" + HistoryText.TABLE_NAME + "` ( `"
+                    + HistoryText.COLUMN_ACCOUNT_ID_NAME + "`, `" + HistoryText.COLUMN_NUMBER_NAME + "`, `" + HistoryText.COLUMN_TIMESTAMP_NAME + "` );",
+            "CREATE INDEX IF NOT EXISTS `historydata_account_peer_timestamp_idx` ON `" + DataTransfer.TABLE_NAME + "` ( `"
+                    + DataTransfer.COLUMN_ACCOUNT_ID_NAME + "`, `" + DataTransfer.COLUMN_PEER_ID_NAME + "`, `" + DataTransfer.COLUMN_TIMESTAMP_NAME + "` );"
+    };
 
     private Dao<HistoryCall, Integer> historyDao = null;
     private Dao<HistoryText, Long> historyTextDao = null;
     private Dao<DataTransfer, Long> historyDataDao = null;
+    private Dao<ConversationSummary, String> conversationSummaryDao = null;
 
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -70,6 +85,8 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             TableUtils.createTable(connectionSource, HistoryCall.class);
             TableUtils.createTable(connectionSource, HistoryText.class);
             TableUtils.createTable(connectionSource, DataTransfer.class);
+            TableUtils.createTable(connectionSource, ConversationSummary.class);
+            createHistoryIndexes(db);
         } catch (SQLException e) {
             Log.e(TAG, "Can't create database", e);
             throw new RuntimeException(e);
@@ -117,6 +134,13 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return historyDataDao;
     }
 
+    public Dao<ConversationSummary, String> getConversationSummaryDao() throws SQLException {
+        if (conversationSummaryDao == null) {
+            conversationSummaryDao = getDao(ConversationSummary.class);
+        }
+        return conversationSummaryDao;
+    }
+
     /**
      * Close the database connections and clear any cached DAOs.
      */
@@ -125,6 +149,8 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         super.close();
         historyDao = null;
         historyTextDao = null;
+        historyDataDao = null;
+        conversationSummaryDao = null;
     }
 
     /**
@@ -147,6 +173,12 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     case 8:
                         updateDatabaseFrom8(connectionSource);
                         break;
+                    case 9:
+                        updateDatabaseFrom9(db);
+                        break;
+                    case 10:
+                        updateDatabaseFrom10(db, connectionSource);
+                        break;
                 }
                 fromDatabaseVersion++;
             }
@@ -245,6 +277,48 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         }
     }
 
+    private void updateDatabaseFrom9(SQLiteDatabase db) throws SQLiteException {
+        if (db != null && db.isOpen()) {
+            try {
+                Log.d(TAG, "updateDatabaseFrom9: Will begin migration from database version 9 to next.");
+                db.beginTransaction();
+                createHistoryIndexes(db);
+                db.setTransactionSuccessful();
+                db.endTransaction();
+                Log.d(TAG, "updateDatabaseFrom9: Migration from database version 9 to next, done.");
+            } catch (SQLiteException exception) {
+                Log.e(TAG, "updateDatabaseFrom9: Migration from database version 9 to next, failed.");
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Creates the conversation_summary table and fills it from the existing history
+     */
+    private void updateDatabaseFrom10(SQLiteDatabase db, ConnectionSource connectionSource) throws SQLException {
+        try {
+            Log.d(TAG, "updateDatabaseFrom10: Will begin migration from database version 10 to next.");
+            TableUtils.createTable(connectionSource, ConversationSummary.class);
+            db.execSQL(HistoryService.CONVERSATION_SUMMARY_REBUILD_QUERY);
+            Log.d(TAG, "updateDatabaseFrom10: Migration from database version 10 to next, done.");
+        } catch (SQLException | SQLiteException e) {
+            Log.e(TAG, "updateDatabaseFrom10: Migration from database version 10 to next, failed.", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the composite indexes used by the per-contact history queries
+     *
+     * @param db the SQLiteDatabase to work with
+     */
+    private void createHistoryIndexes(SQLiteDatabase db) throws SQLiteException {
+        for (String index : HISTORY_INDEXES) {
+            db.execSQL(index);
+        }
+    }
+
     /**
      * Removes all the data from the database, ie all the tables.
      *
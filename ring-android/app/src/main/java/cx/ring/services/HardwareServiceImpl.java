@@ -38,8 +38,10 @@ import android.view.WindowManager;
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import cx.ring.daemon.IntVect;
@@ -58,6 +60,7 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
     public static final int MIN_VIDEO_HEIGHT = 240;
 
     public static final String TAG = HardwareServiceImpl.class.getName();
+    private static final String CAMERA_CACHE_FILE = "camera_capabilities";
     private static WeakReference<SurfaceHolder> mCameraPreviewSurface = new WeakReference<>(null);
     private static Map<String, WeakReference<SurfaceHolder>> videoSurfaces = Collections.synchronizedMap(new HashMap<String, WeakReference<SurfaceHolder>>());
     private final Map<String, Shm> videoInputs = new HashMap<>();
@@ -69,6 +72,8 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
     private int currentCamera = -1;
     private VideoParams previewParams = null;
     private Camera previewCamera = null;
+    private PreviewBufferPool mPreviewBufferPool = null;
+    private CameraCapabilityCache mCapabilityCache = null;
 
     private Ringer mRinger;
     private AudioManager mAudioManager;
@@ -86,15 +91,30 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
         int numberCameras = Camera.getNumberOfCameras();
         if (numberCameras > 0) {
             Camera.CameraInfo camInfo = new Camera.CameraInfo();
+            CameraCapabilityCache cache = getCapabilityCache();
+            List<String> camIds = new ArrayList<>(numberCameras);
             for (int i = 0; i < numberCameras; i++) {
-                addVideoDevice(Integer.toString(i));
+                String camId = Integer.toString(i);
+                camIds.add(camId);
                 Camera.getCameraInfo(i, camInfo);
+                // before adding the device: the daemon asks for the camera info right away
+                CameraCapabilityCache.Capabilities capabilities = cache.get(camId);
+                if (capabilities == null || capabilities.getFacing() != camInfo.facing
+                        || capabilities.getOrientation() != camInfo.orientation) {
+                    capabilities = readCapabilities(i, camInfo);
+                    if (capabilities != null) {
+                        cache.put(camId, capabilities);
+                    }
+                }
+                addVideoDevice(camId);
                 if (camInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
                     cameraFront = i;
                 } else {
                     cameraBack = i;
                 }
             }
+            cache.retain(camIds);
+            cache.save();
             currentCamera = cameraFront;
             setDefaultVideoDevice(Integer.toString(cameraFront));
         } else {
@@ -355,18 +375,19 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
             return;
         }
 
-        Camera cam;
-        try {
-            cam = Camera.open(id);
-        } catch (Exception e) {
-            Log.e(TAG, "An error occurred getting camera info", e);
-            return;
+        CameraCapabilityCache.Capabilities capabilities = getCapabilityCache().get(camId);
+        if (capabilities == null) {
+            Camera.CameraInfo camInfo = new Camera.CameraInfo();
+            Camera.getCameraInfo(id, camInfo);
+            capabilities = readCapabilities(id, camInfo);
+            if (capabilities == null) {
+                return;
+            }
+            getCapabilityCache().put(camId, capabilities);
+            getCapabilityCache().save();
         }
 
-        Camera.Parameters param = cam.getParameters();
-        cam.release();
-
-        for (int fmt : param.getSupportedPreviewFormats()) {
+        for (int fmt : capabilities.getFormats()) {
             formats.add(fmt);
         }
 
@@ -379,13 +400,16 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
         /* {@link Camera.Parameters#getSupportedPreviewSizes} :
          * "This method will always return a list with at least one element."
          * Attempt to find the size with width closest (but above) MIN_WIDTH. */
-        for (Camera.Size s : param.getSupportedPreviewSizes()) {
-            if (s.width < s.height) {
+        int[] previewSizes = capabilities.getSizes();
+        for (int i = 0; i + 1 < previewSizes.length; i += 2) {
+            int width = previewSizes[i];
+            int height = previewSizes[i + 1];
+            if (width < height) {
                 continue;
             }
-            if (size.x < MIN_WIDTH ? s.width > size.x : (s.width >= MIN_WIDTH && s.width < size.x)) {
-                size.x = s.width;
-                size.y = s.height;
+            if (size.x < MIN_WIDTH ? width > size.x : (width >= MIN_WIDTH && width < size.x)) {
+                size.x = width;
+                size.y = height;
             }
         }
 
@@ -396,19 +420,68 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
         sizes.add(p.size.y);
         sizes.add(p.size.x);
 
-        for (int fps[] : param.getSupportedPreviewFpsRange()) {
-            int rate = (fps[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] + fps[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]) / 2;
+        int[] fpsRanges = capabilities.getFpsRanges();
+        for (int i = 0; i + 1 < fpsRanges.length; i += 2) {
+            int rate = (fpsRanges[i] + fpsRanges[i + 1]) / 2;
             rates.add(rate);
         }
         p.rate = rates.get(0);
         Log.d(TAG, "getCameraInfo: using resolution " + p.size.x + "x" + p.size.y + " " + p.rate / 1000 + " FPS");
 
         p.infos = new Camera.CameraInfo();
-        Camera.getCameraInfo(id, p.infos);
+        p.infos.facing = capabilities.getFacing();
+        p.infos.orientation = capabilities.getOrientation();
 
         mNativeParams.put(id, p);
     }
 
+    private synchronized CameraCapabilityCache getCapabilityCache() {
+        if (mCapabilityCache == null) {
+            mCapabilityCache = new CameraCapabilityCache(new File(mContext.getCacheDir(), CAMERA_CACHE_FILE), Build.FINGERPRINT);
+        }
+        return mCapabilityCache;
+    }
+
+    /**
+     * Reads the capabilities of the camera by opening it, which takes a few hundred milliseconds on most devices
+     */
+    @Nullable
+    private CameraCapabilityCache.Capabilities readCapabilities(int id, Camera.CameraInfo camInfo) {
+        Camera cam;
+        try {
+            cam = Camera.open(id);
+        } catch (Exception e) {
+            Log.e(TAG, "An error occurred getting camera info", e);
+            return null;
+        }
+
+        Camera.Parameters param;
+        try {
+            param = cam.getParameters();
+        } finally {
+            cam.release();
+        }
+
+        List<Integer> previewFormats = param.getSupportedPreviewFormats();
+        int[] formats = new int[previewFormats.size()];
+        for (int i = 0; i < formats.length; i++) {
+            formats[i] = previewFormats.get(i);
+        }
+        List<Camera.Size> previewSizes = param.getSupportedPreviewSizes();
+        int[] sizes = new int[previewSizes.size() * 2];
+        for (int i = 0; i < previewSizes.size(); i++) {
+            sizes[2 * i] = previewSizes.get(i).width;
+            sizes[2 * i + 1] = previewSizes.get(i).height;
+        }
+        List<int[]> previewFpsRanges = param.getSupportedPreviewFpsRange();
+        int[] fpsRanges = new int[previewFpsRanges.size() * 2];
+        for (int i = 0; i < previewFpsRanges.size(); i++) {
+            fpsRanges[2 * i] = previewFpsRanges.get(i)[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            fpsRanges[2 * i + 1] = previewFpsRanges.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        }
+        return new CameraCapabilityCache.Capabilities(camInfo.facing, camInfo.orientation, formats, sizes, fpsRanges);
+    }
+
     @Override
     public void setParameters(String camId, int format, int width, int height, int rate) {
         Log.d(TAG, "setParameters: " + camId + ", " + format + ", " + width + ", " + height + ", " + rate);
@@ -425,6 +498,7 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
             newParams.rotation = (deviceParams.infos.orientation - rotation + 360) % 360;
         }
         mParams.put(camId, newParams);
+        resetCaptureQuality();
     }
 
     @Override
@@ -464,6 +538,7 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
         final Camera preview;
         try {
             if (previewCamera != null) {
+                closePreviewBuffers();
                 previewCamera.release();
                 previewCamera = null;
             }
@@ -504,14 +579,14 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
         final int heigth = videoParams.height;
         final int rotation = videoParams.rotation;
 
+        // a buffer goes back to the camera once its frame is copied by the daemon
+        int bufferSize = parameters.getPreviewSize().width * parameters.getPreviewSize().height * ImageFormat.getBitsPerPixel(parameters.getPreviewFormat()) / 8;
+        final PreviewBufferPool bufferPool = new PreviewBufferPool(bufferSize, videoParams.rate / 1000, preview::addCallbackBuffer);
         preview.setPreviewCallbackWithBuffer((data, camera) -> {
-            setVideoFrame(data, videoWidth, heigth, rotation);
-            preview.addCallbackBuffer(data);
+            bufferPool.onFrame(data);
+            setVideoFrame(data, videoWidth, heigth, rotation, bufferPool);
         });
-
-        // enqueue first buffer
-        int bufferSize = parameters.getPreviewSize().width * parameters.getPreviewSize().height * ImageFormat.getBitsPerPixel(parameters.getPreviewFormat()) / 8;
-        preview.addCallbackBuffer(new byte[bufferSize]);
+        bufferPool.start();
 
         preview.setErrorCallback((error, cam) -> {
             Log.w(TAG, "Camera onError " + error);
@@ -528,6 +603,7 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
 
         previewCamera = preview;
         previewParams = videoParams;
+        mPreviewBufferPool = bufferPool;
 
         ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.VIDEO_EVENT);
         event.addEventInput(ServiceEvent.EventInput.VIDEO_STARTED, true);
@@ -544,6 +620,7 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
             final Camera preview = previewCamera;
             final VideoParams params = previewParams;
             previewCamera = null;
+            closePreviewBuffers();
             try {
                 preview.setPreviewCallback(null);
                 preview.setErrorCallback(null);
@@ -552,6 +629,9 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
             } catch (Exception e) {
                 Log.e(TAG, "stopCapture error" + e);
             }
+            stopVideoFrames();
+            // the next capture starts at the negotiated frame rate
+            resetCaptureQuality();
 
             ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.VIDEO_EVENT);
             event.addEventInput(ServiceEvent.EventInput.VIDEO_STARTED, false);
@@ -562,6 +642,27 @@ public class HardwareServiceImpl extends HardwareService implements AudioManager
         }
     }
 
+    @Override
+    public void setCaptureQuality(int level) {
+        VideoParams current = previewParams;
+        if (previewCamera == null || current == null) {
+            return;
+        }
+        // the capture keeps running at the size and range negotiated with the daemon, the extra frames are dropped
+        int rate = level == 0 ? 0 : CaptureQualityController.getFrameRate(level, current.rate);
+        Log.i(TAG, "setCaptureQuality: level " + level + ", " + (level == 0 ? current.rate : rate) / 1000 + " FPS");
+        setMaxFrameRate(rate);
+    }
+
+    private void closePreviewBuffers() {
+        if (mPreviewBufferPool != null) {
+            Log.d(TAG, "closePreviewBuffers: " + mPreviewBufferPool.getBufferCount() + " buffers at "
+                    + Math.round(mPreviewBufferPool.getFrameRate()) + " FPS");
+            mPreviewBufferPool.close();
+            mPreviewBufferPool = null;
+        }
+    }
+
     @Override
     public void addVideoSurface(String id, Object holder) {
         if (!(holder instanceof SurfaceHolder)) {
@@ -67,6 +67,9 @@ public class RingSearchPresenter extends RootPresenter<RingSearchView> implement
     public void unbindView() {
         super.unbindView();
         mAccountService.removeObserver(this);
+        if (mNameLookupInputHandler != null) {
+            mNameLookupInputHandler.cancel();
+        }
     }
 
     @Override
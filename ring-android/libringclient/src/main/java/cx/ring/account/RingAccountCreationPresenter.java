@@ -55,6 +55,9 @@ public class RingAccountCreationPresenter extends RootPresenter<RingAccountCreat
     public void unbindView() {
         super.unbindView();
         mAccountService.removeObserver(this);
+        if (mNameLookupInputHandler != null) {
+            mNameLookupInputHandler.cancel();
+        }
     }
 
     @Override
@@ -345,21 +345,21 @@ public class CallPresenter extends RootPresenter<CallView> implements Observer<S
         } else if (observable instanceof HardwareService) {
             switch (event.getEventType()) {
                 case VIDEO_EVENT:
-                    boolean videoStart = event.getEventInput(ServiceEvent.EventInput.VIDEO_START, Boolean.class, false);
+                    boolean videoStart = event.getBoolean(ServiceEvent.EventInput.VIDEO_START, false);
                     String callId = event.getEventInput(ServiceEvent.EventInput.VIDEO_CALL, String.class);
 
                     Log.d(TAG, "VIDEO_EVENT: " + videoStart + " " + callId);
-                    previewHeight = event.getEventInput(ServiceEvent.EventInput.VIDEO_WIDTH, Integer.class, 0);
-                    previewWidth = event.getEventInput(ServiceEvent.EventInput.VIDEO_HEIGHT, Integer.class, 0);
+                    previewHeight = event.getInt(ServiceEvent.EventInput.VIDEO_WIDTH, 0);
+                    previewWidth = event.getInt(ServiceEvent.EventInput.VIDEO_HEIGHT, 0);
 
                     if (videoStart) {
                         getView().displayVideoSurface(true);
                     } else if (mSipCall != null && callId != null && mSipCall.getCallId().equals(callId)) {
-                        boolean videoStarted = event.getEventInput(ServiceEvent.EventInput.VIDEO_STARTED, Boolean.class, false);
+                        boolean videoStarted = event.getBoolean(ServiceEvent.EventInput.VIDEO_STARTED, false);
                         getView().displayVideoSurface(videoStarted);
                         if (videoStarted) {
-                            videoWidth = event.getEventInput(ServiceEvent.EventInput.VIDEO_WIDTH, Integer.class, 0);
-                            videoHeight = event.getEventInput(ServiceEvent.EventInput.VIDEO_HEIGHT, Integer.class, 0);
+                            videoWidth = event.getInt(ServiceEvent.EventInput.VIDEO_WIDTH, 0);
+                            videoHeight = event.getInt(ServiceEvent.EventInput.VIDEO_HEIGHT, 0);
                         }
                     }
                     getView().resetVideoSize(videoWidth, videoHeight, previewWidth, previewHeight);
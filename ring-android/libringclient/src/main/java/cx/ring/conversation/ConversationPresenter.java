@@ -31,6 +31,7 @@ import cx.ring.model.Account;
 import cx.ring.model.CallContact;
 import cx.ring.model.Conference;
 import cx.ring.model.Conversation;
+import cx.ring.model.HistoryPage;
 import cx.ring.model.RingError;
 import cx.ring.model.ServiceEvent;
 import cx.ring.model.SipCall;
@@ -53,6 +54,8 @@ import cx.ring.utils.Observer;
 import cx.ring.utils.VCardUtils;
 import ezvcard.VCard;
 import io.reactivex.Scheduler;
+import io.reactivex.observers.DisposableSingleObserver;
+import io.reactivex.schedulers.Schedulers;
 
 public class ConversationPresenter extends RootPresenter<ConversationView> implements Observer<ServiceEvent> {
 
@@ -76,6 +79,8 @@ public class ConversationPresenter extends RootPresenter<ConversationView> imple
 
     private CallContact mCurrentContact;
 
+    private boolean mLoadingHistory = false;
+
     @Inject
     public ConversationPresenter(ContactService mContactService,
                                  AccountService mAccountService,
@@ -258,7 +263,7 @@ public class ConversationPresenter extends RootPresenter<ConversationView> imple
 
         if (conf != null && (conf.getParticipants().get(0).getCallState() == SipCall.State.INACTIVE
                 || conf.getParticipants().get(0).getCallState() == SipCall.State.FAILURE)) {
-            mConversation.removeConference(conf);
+            mConversationFacade.removeConference(mConversation, conf);
             conf = null;
         }
 
@@ -274,9 +279,55 @@ public class ConversationPresenter extends RootPresenter<ConversationView> imple
         getView().goToHome();
     }
 
+    /**
+     * Loads the next page of older history elements, called when the user scrolls to the top of the conversation
+     */
+    public void loadMoreHistory() {
+        if (mConversation == null || !mConversation.isHistoryLoaded() || !mConversation.hasMoreHistory()) {
+            return;
+        }
+        loadHistoryPage(mConversation, mConversation.getHistoryCursor());
+    }
+
+    private void loadHistoryPage(final Conversation conversation, final long before) {
+        if (mLoadingHistory) {
+            return;
+        }
+        mLoadingHistory = true;
+        final boolean firstPage = !conversation.isHistoryLoaded();
+        mCompositeDisposable.add(mHistoryService.getHistoryPageForAccountAndContactRingId(mAccountId, mContactRingId, before, HistoryService.HISTORY_PAGE_SIZE)
+                .subscribeOn(Schedulers.computation())
+                .observeOn(mMainScheduler)
+                .subscribeWith(new DisposableSingleObserver<HistoryPage>() {
+                    @Override
+                    public void onSuccess(HistoryPage historyPage) {
+                        mLoadingHistory = false;
+                        mConversationFacade.addHistoryPage(conversation, historyPage);
+                        if (conversation != mConversation || getView() == null) {
+                            return;
+                        }
+                        if (firstPage) {
+                            mHistoryService.readMessages(conversation);
+                            getView().refreshView(conversation);
+                        } else if (!historyPage.isEmpty()) {
+                            getView().displayOlderHistory(conversation);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        mLoadingHistory = false;
+                        Log.e(TAG, "loadHistoryPage: not able to load history", e);
+                    }
+                }));
+    }
+
     private void loadHistory() {
-        mConversation = mConversationFacade.startConversation(mCurrentContact);
+        mConversation = mConversationFacade.openConversation(mCurrentContact);
         mConversation.setVisible(true);
+        if (!mConversation.isHistoryLoaded()) {
+            loadHistoryPage(mConversation, Long.MAX_VALUE);
+        }
         mHistoryService.readMessages(mConversation);
         mNotificationService.cancelTextNotification(mContactRingId.getRawUriString());
         getView().hideNumberSpinner();
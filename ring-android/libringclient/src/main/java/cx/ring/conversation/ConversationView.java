@@ -28,6 +28,8 @@ public interface ConversationView extends BaseView {
 
     void refreshView(Conversation conversation);
 
+    void displayOlderHistory(Conversation conversation);
+
     void updateView(String address, String name, int state);
 
     void displayContactName(CallContact contact);
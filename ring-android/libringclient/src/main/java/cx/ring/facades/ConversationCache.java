@@ -0,0 +1,140 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.facades;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cx.ring.model.Conversation;
+
+/**
+ * Keeps the history of the recently used conversations in memory, under a memory budget.
+ * <p>
+ * The least recently used conversations are trimmed to their summary when the budget is exceeded,
+ * their history is loaded again from the HistoryService when they are opened.
+ * Conversations in use (displayed, in call, with unread messages or ongoing transfers) are never trimmed.
+ * <p>
+ * Not thread safe: to use from the main thread only, as trimming clears the histories displayed by the UI.
+ */
+public class ConversationCache {
+
+    public static final long DEFAULT_BUDGET = 2 * 1024 * 1024;
+
+    // conversations with a history in memory, least recently used first -> estimated size
+    private final LinkedHashMap<Conversation, Long> mConversations = new LinkedHashMap<>(16, 0.75f, true);
+    private long mBudget;
+    private long mSize = 0;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+
+    public ConversationCache(long budget) {
+        mBudget = budget;
+    }
+
+    /**
+     * Sets the memory budget, in bytes, and trims the conversations accordingly
+     */
+    public void setBudget(long budget) {
+        mBudget = budget;
+        trim();
+    }
+
+    public long getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * Records the opening of the conversation: a hit if its history is in memory, a miss if it has to be loaded
+     */
+    public void access(Conversation conversation) {
+        if (conversation.isHistoryLoaded()) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        update(conversation);
+    }
+
+    /**
+     * Updates the size of the conversation after a change of its history, and trims the least recently used conversations
+     */
+    public void update(Conversation conversation) {
+        long size = conversation.getTimeline().getEstimatedSize();
+        Long previous = size == 0 ? mConversations.remove(conversation) : mConversations.put(conversation, size);
+        mSize += size - (previous == null ? 0 : previous);
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Conversation, Long>> it = mConversations.entrySet().iterator();
+        while (mSize > mBudget && it.hasNext()) {
+            Map.Entry<Conversation, Long> entry = it.next();
+            Conversation conversation = entry.getKey();
+            if (!conversation.canTrimHistory()) {
+                continue;
+            }
+            it.remove();
+            mSize -= entry.getValue();
+            conversation.trimHistory();
+            mEvictionCount++;
+        }
+    }
+
+    public void clear() {
+        mConversations.clear();
+        mSize = 0;
+    }
+
+    /**
+     * @return the estimated memory used by the conversations, in bytes
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return the number of conversations with a history in memory
+     */
+    public int getConversationCount() {
+        return mConversations.size();
+    }
+
+    /**
+     * @return the number of conversations opened with their history in memory
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of conversations opened with their history to load
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of conversations trimmed to their summary
+     */
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+}
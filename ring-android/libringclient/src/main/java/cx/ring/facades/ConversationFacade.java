@@ -20,7 +20,10 @@
 package cx.ring.facades;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -32,9 +35,12 @@ import cx.ring.model.CallContact;
 import cx.ring.model.Conference;
 import cx.ring.model.ConfigKey;
 import cx.ring.model.Conversation;
+import cx.ring.model.ConversationSummary;
+import cx.ring.model.ConversationTimeline;
 import cx.ring.model.DataTransfer;
 import cx.ring.model.DataTransferEventCode;
 import cx.ring.model.HistoryCall;
+import cx.ring.model.HistoryPage;
 import cx.ring.model.HistoryText;
 import cx.ring.model.SecureSipCall;
 import cx.ring.model.ServiceEvent;
@@ -54,11 +60,12 @@ import cx.ring.utils.Observable;
 import cx.ring.utils.Observer;
 import cx.ring.utils.StringUtils;
 import cx.ring.utils.Tuple;
+import io.reactivex.Scheduler;
 
 /**
  * This facade handles the conversations
  * - Load from the history
- * - Keep a local cache of these conversations
+ * - Keep a local cache of these conversations, the histories of the least recently used ones under a memory budget
  * <p>
  * Events are broadcasted:
  * - CONVERSATIONS_CHANGED
@@ -87,32 +94,74 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
     @Inject
     DeviceRuntimeService mDeviceRuntimeService;
 
+    @Inject
+    Scheduler mMainScheduler;
+
     private final Map<String, Conversation> mConversationMap = new HashMap<>();
+    // conversations of the messages and of the ongoing file transfers, to route their updates
+    private final Map<Long, Conversation> mConversationsByMessageId = new HashMap<>();
+    private final Map<Long, Conversation> mConversationsByTransferId = new HashMap<>();
+    // ongoing calls by call id and conferences by conference id, to route the call events
+    private final Map<String, Tuple<Conversation, Conference>> mCallsById = new HashMap<>();
+    private final Map<String, Conference> mConferencesById = new HashMap<>();
+    // only used from the main thread, that also trims the histories of the conversations
+    private final ConversationCache mConversationCache = new ConversationCache(ConversationCache.DEFAULT_BUDGET);
 
     public ConversationFacade(HistoryService historyService, CallService callService, ContactService contactService, AccountService accountService) {
         mHistoryService = historyService;
-        mHistoryService.addObserver(this);
+        mHistoryService.addObserver(this, ServiceEvent.EventType.INCOMING_MESSAGE, ServiceEvent.EventType.ACCOUNT_MESSAGE_STATUS_CHANGED,
+                ServiceEvent.EventType.HISTORY_LOADED, ServiceEvent.EventType.HISTORY_MODIFIED);
         mCallService = callService;
-        mCallService.addObserver(this);
+        mCallService.addObserver(this, ServiceEvent.EventType.CALL_STATE_CHANGED, ServiceEvent.EventType.INCOMING_CALL);
         mContactService = contactService;
-        mContactService.addObserver(this);
+        mContactService.addObserver(this, ServiceEvent.EventType.CONTACTS_CHANGED);
         mAccountService = accountService;
-        mAccountService.addObserver(this);
+        mAccountService.addObserver(this, ServiceEvent.EventType.REGISTERED_NAME_FOUND, ServiceEvent.EventType.DATA_TRANSFER);
     }
 
     private Tuple<Conference, SipCall> getCall(String id) {
-        for (Conversation conv : mConversationMap.values()) {
-            ArrayList<Conference> confs = conv.getCurrentCalls();
-            for (Conference c : confs) {
-                SipCall call = c.getCallById(id);
-                if (call != null) {
-                    return new Tuple<>(c, call);
-                }
+        Tuple<Conversation, Conference> conversationCall = mCallsById.get(id);
+        if (conversationCall != null) {
+            SipCall call = conversationCall.second.getCallById(id);
+            if (call != null) {
+                return new Tuple<>(conversationCall.second, call);
             }
         }
         return new Tuple<>(null, null);
     }
 
+    /**
+     * Adds the conference to the conversation and indexes its calls
+     */
+    private void addConference(Conversation conversation, Conference conference) {
+        conversation.addConference(conference);
+        mConferencesById.put(conference.getId(), conference);
+        Tuple<Conversation, Conference> conversationCall = new Tuple<>(conversation, conference);
+        for (SipCall call : conference.getParticipants()) {
+            mCallsById.put(call.getCallId(), conversationCall);
+        }
+    }
+
+    /**
+     * Removes the conference from the conversation and from the call indexes
+     */
+    public void removeConference(Conversation conversation, Conference conference) {
+        conversation.removeConference(conference);
+        // only the ongoing calls are indexed, and the ids of the conference may have changed since
+        Iterator<Conference> conferences = mConferencesById.values().iterator();
+        while (conferences.hasNext()) {
+            if (conferences.next() == conference) {
+                conferences.remove();
+            }
+        }
+        Iterator<Tuple<Conversation, Conference>> calls = mCallsById.values().iterator();
+        while (calls.hasNext()) {
+            if (calls.next().second == conference) {
+                calls.remove();
+            }
+        }
+    }
+
     /**
      * @return the local cache of conversations
      */
@@ -133,14 +182,19 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
         return null;
     }
 
+    /**
+     * @param callId call id or conference id
+     */
     public Conversation getConversationByCallId(String callId) {
-        for (Conversation conversation : mConversationMap.values()) {
-            Conference conf = conversation.getConference(callId);
-            if (conf != null) {
-                return conversation;
+        Tuple<Conversation, Conference> conversationCall = mCallsById.get(callId);
+        if (conversationCall == null) {
+            Conference conference = mConferencesById.get(callId);
+            if (conference == null || conference.getParticipants().isEmpty()) {
+                return null;
             }
+            conversationCall = mCallsById.get(conference.getParticipants().get(0).getCallId());
         }
-        return null;
+        return conversationCall == null ? null : conversationCall.first;
     }
 
     /**
@@ -169,6 +223,36 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
         return conversation;
     }
 
+    /**
+     * Starts the conversation to display it, its history is to be loaded if not in memory
+     */
+    public Conversation openConversation(CallContact contact) {
+        Conversation conversation = startConversation(contact);
+        mMainScheduler.scheduleDirect(() -> mConversationCache.access(conversation));
+        return conversation;
+    }
+
+    /**
+     * Updates the size of the conversation in the cache from the main thread, that may trim the least recently used histories
+     */
+    private void updateConversationCache(Conversation conversation) {
+        mMainScheduler.scheduleDirect(() -> mConversationCache.update(conversation));
+    }
+
+    /**
+     * @return the cache of conversation histories, with its hit, miss and eviction counters, to use from the main thread
+     */
+    public ConversationCache getConversationCache() {
+        return mConversationCache;
+    }
+
+    /**
+     * Sets the memory budget of the conversation histories, in bytes
+     */
+    public void setConversationCacheBudget(long budget) {
+        mMainScheduler.scheduleDirect(() -> mConversationCache.setBudget(budget));
+    }
+
     /**
      * @return the conversation from the local cache
      */
@@ -217,13 +301,7 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
     }
 
     public Conference getCurrentCallingConf() {
-        for (Conversation c : getConversations().values()) {
-            Conference conf = c.getCurrentCall();
-            if (conf != null) {
-                return conf;
-            }
-        }
-        return null;
+        return mConferencesById.isEmpty() ? null : mConferencesById.values().iterator().next();
     }
 
     private void parseNewMessage(TextMessage txt) {
@@ -235,12 +313,20 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
             txt.setContact(conversation.getContact());
         }
 
-        conversation.addTextMessage(txt);
+        addTextMessage(conversation, txt);
+        updateConversationCache(conversation);
         if (txt.isRead()) {
             mHistoryService.updateTextMessage(new HistoryText(txt));
         }
     }
 
+    private void addTextMessage(Conversation conversation, TextMessage txt) {
+        conversation.addTextMessage(txt);
+        if (txt.getId() != 0) {
+            mConversationsByMessageId.put(txt.getId(), conversation);
+        }
+    }
+
     private void parseHistoryCalls(List<HistoryCall> historyCalls, boolean acceptAllMessages) {
         for (HistoryCall call : historyCalls) {
             CallContact contact = mContactService.findContact(call.getContactID(), call.getContactKey(), new Uri(call.getNumber()));
@@ -263,10 +349,10 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
             String key = contact.getIds().get(0);
             String phone = contact.getPhones().get(0).getNumber().getRawUriString();
             if (mConversationMap.containsKey(key) || mConversationMap.containsKey(phone)) {
-                mConversationMap.get(key).addTextMessage(msg);
+                addTextMessage(mConversationMap.get(key), msg);
             } else if (acceptAllMessages) {
                 Conversation conversation = new Conversation(contact);
-                conversation.addTextMessage(msg);
+                addTextMessage(conversation, msg);
                 mConversationMap.put(key, conversation);
             }
         }
@@ -286,6 +372,50 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
         }
     }
 
+    /**
+     * Adds the conversations older than the history window loaded at startup, from their summary.
+     * Their history is loaded page by page when they are opened.
+     */
+    private void parseConversationSummaries(List<ConversationSummary> summaries, boolean acceptAllMessages) {
+        for (ConversationSummary summary : summaries) {
+            if (summary.getLastType() == null) {
+                continue;
+            }
+            CallContact contact = mContactService.findContactByNumber(summary.getNumber());
+            String key = contact.getIds().get(0);
+            Conversation conversation = mConversationMap.get(key);
+            if (conversation == null) {
+                if (!acceptAllMessages) {
+                    continue;
+                }
+                conversation = new Conversation(contact);
+                mConversationMap.put(key, conversation);
+            }
+            conversation.addHistorySummary(summary.getAccountId(), new Date(summary.getLastInteractionTime()));
+        }
+    }
+
+    /**
+     * Adds a page of history loaded with HistoryService.getHistoryPageForAccountAndContactRingId to a conversation.
+     * Elements already present in the conversation (ie from the account window loaded at startup) are skipped.
+     */
+    public void addHistoryPage(Conversation conversation, HistoryPage page) {
+        for (HistoryCall call : page.getCalls()) {
+            conversation.addHistoryCall(call);
+        }
+        for (HistoryText htext : page.getTexts()) {
+            TextMessage msg = new TextMessage(htext);
+            if (!conversation.hasTextMessage(msg)) {
+                addTextMessage(conversation, msg);
+            }
+        }
+        for (DataTransfer transfer : page.getTransfers()) {
+            conversation.addFileTransfer(transfer);
+        }
+        conversation.setHistoryCursor(page.getOldestTimestamp(), page.hasMore());
+        updateConversationCache(conversation);
+    }
+
     private void addContacts(boolean acceptAllMessages) {
         ArrayList<CallContact> contacts;
         if (acceptAllMessages) {
@@ -307,6 +437,11 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
      */
     public void clearConversations() {
         mConversationMap.clear();
+        mConversationsByMessageId.clear();
+        mConversationsByTransferId.clear();
+        mCallsById.clear();
+        mConferencesById.clear();
+        mMainScheduler.scheduleDirect(mConversationCache::clear);
     }
 
     private void aggregateHistory() {
@@ -343,13 +478,11 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
                         break;
                     }
                 }
-                if (conv != null) {
-                    conv.addConference(conference);
-                } else {
+                if (conv == null) {
                     conv = new Conversation(contact);
-                    conv.addConference(conference);
                     mConversationMap.put(ids.get(0), conv);
                 }
+                addConference(conv, conference);
             }
         }
     }
@@ -382,15 +515,28 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
         }
     }
 
+    private static long getLastElementDate(Conversation conversation) {
+        ConversationTimeline timeline = conversation.getTimeline();
+        return timeline.isEmpty() ? 0 : timeline.get(timeline.size() - 1).getDate();
+    }
+
     private void handleDataTransferEvent(DataTransfer transfer, DataTransferEventCode transferEventCode) {
-        CallContact contact = mContactService.findContactByNumber(transfer.getPeerId());
-        Conversation conversation = startConversation(contact);
+        Long transferId = transfer.getDataTransferId();
+        Conversation conversation = mConversationsByTransferId.get(transferId);
+        if (conversation == null) {
+            conversation = startConversation(mContactService.findContactByNumber(transfer.getPeerId()));
+            mConversationsByTransferId.put(transferId, conversation);
+        }
         if (transferEventCode == DataTransferEventCode.CREATED) {
             conversation.addFileTransfer(transfer);
+            updateConversationCache(conversation);
         } else {
             conversation.updateFileTransfer(transfer, transferEventCode);
         }
-        mNotificationService.showFileTransferNotification(transfer, transferEventCode, contact);
+        if (transferEventCode.isOver()) {
+            mConversationsByTransferId.remove(transferId);
+        }
+        mNotificationService.showFileTransferNotification(transfer, transferEventCode, conversation.getContact());
     }
 
     @Override
@@ -421,7 +567,10 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
                 }
                 case ACCOUNT_MESSAGE_STATUS_CHANGED: {
                     TextMessage newMsg = event.getEventInput(ServiceEvent.EventInput.MESSAGE, TextMessage.class);
-                    Conversation conv = getConversationByContact(mContactService.findContactByNumber(newMsg.getNumber()));
+                    Conversation conv = mConversationsByMessageId.get(newMsg.getId());
+                    if (conv == null) {
+                        conv = getConversationByContact(mContactService.findContactByNumber(newMsg.getNumber()));
+                    }
                     if (conv != null) {
                         conv.updateTextMessage(newMsg);
                     }
@@ -436,7 +585,7 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
                     if (account != null) {
                         boolean acceptAllMessages = account.getDetailBoolean(ConfigKey.DHT_PUBLIC_IN);
 
-                        mConversationMap.clear();
+                        clearConversations();
 
                         addContacts(acceptAllMessages);
 
@@ -449,8 +598,24 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
                         List<DataTransfer> historyTransfers = (List<DataTransfer>) event.getEventInput(ServiceEvent.EventInput.HISTORY_TRANSFERS, ArrayList.class);
                         parseHistoryTransfers(historyTransfers, acceptAllMessages);
 
+                        List<ConversationSummary> summaries = (List<ConversationSummary>) event.getEventInput(ServiceEvent.EventInput.HISTORY_SUMMARIES, ArrayList.class);
+                        if (summaries != null) {
+                            parseConversationSummaries(summaries, acceptAllMessages);
+                        }
+
                         aggregateHistory();
 
+                        // least recent conversations first, to be trimmed first
+                        List<Conversation> conversations = new ArrayList<>(mConversationMap.values());
+                        Collections.sort(conversations, (lhs, rhs) -> {
+                            long lhsDate = getLastElementDate(lhs);
+                            long rhsDate = getLastElementDate(rhs);
+                            return lhsDate < rhsDate ? -1 : (lhsDate == rhsDate ? 0 : 1);
+                        });
+                        for (Conversation conversation : conversations) {
+                            updateConversationCache(conversation);
+                        }
+
                         searchForRingIdInBlockchain();
                     }
 
@@ -476,19 +641,15 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
                     int newState = call.getCallState();
                     mHardwareService.updateAudioState(call.isRinging() && call.isIncoming(), call.isOnGoing() && !call.isAudioOnly());
 
-                    for (Conversation conv : mConversationMap.values()) {
-                        conference = conv.getConference(call.getCallId());
-                        if (conference != null) {
-                            conversation = conv;
-                            Log.w(TAG, "CALL_STATE_CHANGED : found conversation " + call.getCallId());
-                            break;
-                        }
-                    }
-
-                    if (conversation == null) {
+                    Tuple<Conversation, Conference> conversationCall = mCallsById.get(call.getCallId());
+                    if (conversationCall != null) {
+                        conversation = conversationCall.first;
+                        conference = conversationCall.second;
+                        Log.w(TAG, "CALL_STATE_CHANGED : found conversation " + call.getCallId());
+                    } else {
                         conversation = startConversation(call.getContact());
                         conference = new Conference(call);
-                        conversation.addConference(conference);
+                        addConference(conversation, conference);
                     }
 
                     Log.w(TAG, "CALL_STATE_CHANGED : updating call state to " + newState);
@@ -515,14 +676,16 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
                             call.setTimestampEnd(System.currentTimeMillis());
                         }
 
-                        mHistoryService.insertNewEntry(conference);
+                        mHistoryService.queueNewEntry(conference);
                         conference.removeParticipant(call);
+                        mCallsById.remove(call.getCallId());
                         conversation.addHistoryCall(new HistoryCall(call));
                         mCallService.removeCallForId(call.getCallId());
                     }
                     if (conference.getParticipants().isEmpty()) {
-                        conversation.removeConference(conference);
+                        removeConference(conversation, conference);
                     }
+                    updateConversationCache(conversation);
 
                     setChanged();
                     mEvent = new ServiceEvent(ServiceEvent.EventType.CALL_STATE_CHANGED);
@@ -533,7 +696,7 @@ public class ConversationFacade extends Observable implements Observer<ServiceEv
                     conversation = startConversation(call.getContact());
                     conference = new Conference(call);
 
-                    conversation.addConference(conference);
+                    addConference(conversation, conference);
                     mNotificationService.showCallNotification(conference);
 
                     mHardwareService.setPreviewSettings();
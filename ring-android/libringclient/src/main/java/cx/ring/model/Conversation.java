@@ -22,9 +22,10 @@ package cx.ring.model;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,23 +41,37 @@ public class Conversation {
 
     private final Map<String, HistoryEntry> mHistory;
     private final ArrayList<Conference> mCurrentCalls;
-    private final ArrayList<IConversationElement> mAggregateHistory;
+    // current calls by conference id and by participant call id
+    private final Map<String, Conference> mConferencesById = new HashMap<>();
+    private final ConversationTimeline mAggregateHistory;
+    // ongoing transfers by daemon transfer id
+    private final Map<Long, DataTransfer> mTransfersByDaemonId = new HashMap<>();
+    // last interaction of each account, kept when the history is trimmed
+    private final Map<String, Date> mTrimmedHistory = new HashMap<>();
 
     // runtime flag set to true if the user is currently viewing this conversation
     private boolean mVisible = false;
 
+    // timestamp of the oldest history page loaded from the database, used as paging cursor
+    private long mHistoryCursor = Long.MAX_VALUE;
+    private boolean mHistoryLoaded = false;
+    private boolean mHasMoreHistory = true;
+
     public Conversation(CallContact contact) {
         setContact(contact);
         mHistory = new HashMap<>();
         mCurrentCalls = new ArrayList<>();
-        mAggregateHistory = new ArrayList<>(32);
+        mAggregateHistory = new ConversationTimeline();
     }
 
+    /**
+     * @param id conference id or participant call id
+     */
     public Conference getConference(String id) {
-        for (Conference c : mCurrentCalls)
-            if (c.getId().contentEquals(id) || c.getCallById(id) != null) {
-                return c;
-            }
+        Conference c = mConferencesById.get(id);
+        if (c != null && (c.getId().equals(id) || c.getCallById(id) != null)) {
+            return c;
+        }
         return null;
     }
 
@@ -71,14 +86,35 @@ public class Conversation {
             }
             if (currentConference.getId().equals(conference.getId())) {
                 mCurrentCalls.set(i, conference);
+                unindexConference(currentConference);
+                indexConference(conference);
                 return;
             }
         }
         mCurrentCalls.add(conference);
+        indexConference(conference);
     }
 
     public void removeConference(Conference c) {
         mCurrentCalls.remove(c);
+        unindexConference(c);
+    }
+
+    private void indexConference(Conference conference) {
+        mConferencesById.put(conference.getId(), conference);
+        for (SipCall call : conference.getParticipants()) {
+            mConferencesById.put(call.getCallId(), conference);
+        }
+    }
+
+    private void unindexConference(Conference conference) {
+        // the ids of the conference may have changed since it was indexed
+        Iterator<Conference> it = mConferencesById.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() == conference) {
+                it.remove();
+            }
+        }
     }
 
     public void setContact(CallContact contact) {
@@ -98,7 +134,7 @@ public class Conversation {
     }
 
     public void addHistoryCall(HistoryCall call) {
-        if (getHistoryCalls().contains(call)) {
+        if (!mAggregateHistory.add(call)) {
             return;
         }
         String accountId = call.getAccountID();
@@ -109,10 +145,12 @@ public class Conversation {
             entry.addHistoryCall(call, getContact());
             mHistory.put(accountId, entry);
         }
-        mAggregateHistory.add(call);
     }
 
     public void addTextMessage(TextMessage txt) {
+        if (!mAggregateHistory.add(txt)) {
+            return;
+        }
         if (mVisible) {
             txt.read();
         }
@@ -128,10 +166,25 @@ public class Conversation {
             accountEntry.addTextMessage(txt);
             mHistory.put(accountId, accountEntry);
         }
-        mAggregateHistory.add(txt);
     }
 
+    public boolean hasTextMessage(TextMessage txt) {
+        if (txt.getId() != 0) {
+            return mAggregateHistory.getTextMessage(txt.getId()) != null;
+        }
+        HistoryEntry accountEntry = mHistory.get(txt.getAccount());
+        return accountEntry != null && txt.equals(accountEntry.getTextMessages().get(txt.getDate()));
+    }
+
+    /**
+     * Updates the status of the message with the same id
+     */
     public void updateTextMessage(TextMessage txt) {
+        TextMessage message = mAggregateHistory.getTextMessage(txt.getId());
+        if (message != null) {
+            message.setStatus(txt.getStatus());
+            return;
+        }
         HistoryEntry accountEntry = mHistory.get(txt.getAccount());
         if (accountEntry != null) {
             accountEntry.updateTextMessage(txt);
@@ -142,13 +195,24 @@ public class Conversation {
         return mHistory;
     }
 
-    public ArrayList<IConversationElement> getAggregateHistory() {
-        Collections.sort(mAggregateHistory);
+    /**
+     * @return the elements of the conversation sorted by date, not to be modified
+     */
+    public List<IConversationElement> getAggregateHistory() {
+        return mAggregateHistory.getElements();
+    }
+
+    public ConversationTimeline getTimeline() {
         return mAggregateHistory;
     }
 
     public Set<String> getAccountsUsed() {
-        return mHistory.keySet();
+        if (mTrimmedHistory.isEmpty()) {
+            return mHistory.keySet();
+        }
+        Set<String> accounts = new HashSet<>(mTrimmedHistory.keySet());
+        accounts.addAll(mHistory.keySet());
+        return accounts;
     }
 
     public String getLastAccountUsed() {
@@ -161,6 +225,12 @@ public class Conversation {
                 last = e.getKey();
             }
         }
+        for (Map.Entry<String, Date> e : mTrimmedHistory.entrySet()) {
+            if (d.compareTo(e.getValue()) < 0) {
+                d = e.getValue();
+                last = e.getKey();
+            }
+        }
         Log.i(TAG, "getLastAccountUsed " + last);
         return last;
     }
@@ -178,7 +248,7 @@ public class Conversation {
 
     public Collection<HistoryCall> getHistoryCalls() {
         List<HistoryCall> result = new ArrayList<>();
-        for (IConversationElement ce : mAggregateHistory) {
+        for (IConversationElement ce : mAggregateHistory.getElements()) {
             if (ce.getType() == IConversationElement.CEType.CALL) {
                 result.add((HistoryCall) ce);
             }
@@ -202,23 +272,17 @@ public class Conversation {
         return mHistory;
     }
 
+    /**
+     * @param transferId database id of the transfer
+     */
     public DataTransfer findConversationElement(Long transferId) {
-        for (IConversationElement iConversationElement : mAggregateHistory) {
-            if (iConversationElement != null && iConversationElement.getType() == IConversationElement.CEType.FILE) {
-                DataTransfer hft = (DataTransfer) iConversationElement;
-                if (transferId.equals(hft.getId())) {
-                    return hft;
-                }
-            }
-        }
-        return null;
+        return mAggregateHistory.getTransfer(transferId);
     }
 
     public void addFileTransfer(DataTransfer dataTransfer) {
-        if (mAggregateHistory.contains(dataTransfer)) {
-            return;
+        if (mAggregateHistory.add(dataTransfer) && dataTransfer.getDataTransferId() != -1) {
+            mTransfersByDaemonId.put(dataTransfer.getDataTransferId(), dataTransfer);
         }
-        mAggregateHistory.add(dataTransfer);
     }
 
     public void addDataTransfers(List<DataTransfer> dataTransfers) {
@@ -228,16 +292,93 @@ public class Conversation {
     }
 
     public void updateFileTransfer(DataTransfer transfer, DataTransferEventCode eventCode) {
-        DataTransfer dataTransfer = findConversationElement(transfer.getId());
+        // progress events may come before the transfer is saved in the database
+        DataTransfer dataTransfer = mTransfersByDaemonId.get(transfer.getDataTransferId());
+        if (dataTransfer == null && transfer.getId() != 0) {
+            dataTransfer = findConversationElement(transfer.getId());
+        }
         if (dataTransfer != null) {
             dataTransfer.setEventCode(eventCode);
+            if (eventCode.isOver()) {
+                mTransfersByDaemonId.remove(transfer.getDataTransferId());
+            }
         }
     }
 
     public void removeAll() {
         mAggregateHistory.clear();
+        mTransfersByDaemonId.clear();
+        mTrimmedHistory.clear();
         mCurrentCalls.clear();
+        mConferencesById.clear();
         mHistory.clear();
+        mHistoryCursor = Long.MAX_VALUE;
+        mHistoryLoaded = false;
+        mHasMoreHistory = true;
+    }
+
+    /**
+     * @return false if the history is in use: conversation displayed, ongoing call or transfer, unread messages
+     */
+    public boolean canTrimHistory() {
+        return !mVisible && mCurrentCalls.isEmpty() && mTransfersByDaemonId.isEmpty() && getUnreadTextMessages().isEmpty();
+    }
+
+    /**
+     * Releases the history elements, keeping only the last interaction of each account.
+     * The history is loaded again page by page, like at startup.
+     */
+    public void trimHistory() {
+        for (Map.Entry<String, HistoryEntry> e : mHistory.entrySet()) {
+            Date lastInteraction = e.getValue().getLastInteractionDate();
+            Date trimmed = mTrimmedHistory.get(e.getKey());
+            if (trimmed == null || trimmed.compareTo(lastInteraction) < 0) {
+                mTrimmedHistory.put(e.getKey(), lastInteraction);
+            }
+        }
+        mAggregateHistory.clear();
+        mHistory.clear();
+        mHistoryCursor = Long.MAX_VALUE;
+        mHistoryLoaded = false;
+        mHasMoreHistory = true;
+    }
+
+    /**
+     * Records the last interaction of an account with this conversation, when its history is not loaded,
+     * ie older than the window loaded at startup
+     */
+    public void addHistorySummary(String accountId, Date lastInteraction) {
+        Date last = mTrimmedHistory.get(accountId);
+        if (last == null || last.compareTo(lastInteraction) < 0) {
+            mTrimmedHistory.put(accountId, lastInteraction);
+        }
+    }
+
+    /**
+     * @return true once at least one history page has been loaded for this conversation
+     */
+    public boolean isHistoryLoaded() {
+        return mHistoryLoaded;
+    }
+
+    public long getHistoryCursor() {
+        return mHistoryCursor;
+    }
+
+    public boolean hasMoreHistory() {
+        return mHasMoreHistory;
+    }
+
+    /**
+     * Moves the paging cursor after a history page has been added to this conversation
+     *
+     * @param oldestTimestamp timestamp of the oldest element of the page
+     * @param hasMore         false if the page reached the beginning of the history
+     */
+    public void setHistoryCursor(long oldestTimestamp, boolean hasMore) {
+        mHistoryLoaded = true;
+        mHistoryCursor = Math.min(mHistoryCursor, oldestTimestamp);
+        mHasMoreHistory = hasMore;
     }
 
     public interface ConversationActionCallback {
@@ -0,0 +1,139 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.model;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Last interaction and unread count of the conversation between an account and a peer,
+ * as displayed by the smart list.
+ * Rows are maintained by the HistoryService each time the history is written.
+ */
+@DatabaseTable(tableName = ConversationSummary.TABLE_NAME)
+public class ConversationSummary {
+    public static final String TABLE_NAME = "conversation_summary";
+    public static final String COLUMN_ID_NAME = "id";
+    public static final String COLUMN_ACCOUNT_ID_NAME = "accountId";
+    public static final String COLUMN_NUMBER_NAME = "number";
+    public static final String COLUMN_LAST_INTERACTION_TIME_NAME = "lastInteractionTime";
+    public static final String COLUMN_LAST_TYPE_NAME = "lastType";
+    public static final String COLUMN_LAST_INCOMING_NAME = "lastIncoming";
+    public static final String COLUMN_LAST_MESSAGE_NAME = "lastMessage";
+    public static final String COLUMN_LAST_CALL_DURATION_NAME = "lastCallDuration";
+    public static final String COLUMN_UNREAD_COUNT_NAME = "unreadCount";
+
+    @DatabaseField(id = true, columnName = COLUMN_ID_NAME)
+    String id;
+    @DatabaseField(index = true, columnName = COLUMN_ACCOUNT_ID_NAME)
+    String accountId;
+    @DatabaseField(columnName = COLUMN_NUMBER_NAME)
+    String number;
+    @DatabaseField(columnName = COLUMN_LAST_INTERACTION_TIME_NAME)
+    long lastInteractionTime;
+    @DatabaseField(columnName = COLUMN_LAST_TYPE_NAME)
+    IConversationElement.CEType lastType;
+    @DatabaseField(columnName = COLUMN_LAST_INCOMING_NAME)
+    boolean lastIncoming;
+    @DatabaseField(columnName = COLUMN_LAST_MESSAGE_NAME)
+    String lastMessage;
+    @DatabaseField(columnName = COLUMN_LAST_CALL_DURATION_NAME)
+    long lastCallDuration;
+    @DatabaseField(columnName = COLUMN_UNREAD_COUNT_NAME)
+    int unreadCount;
+
+    /* Needed by ORMLite */
+    public ConversationSummary() {
+    }
+
+    public ConversationSummary(String accountId, String number) {
+        this.id = getId(accountId, number);
+        this.accountId = accountId;
+        this.number = number;
+    }
+
+    /**
+     * @return the primary key of the summary of the conversation between the account and the peer
+     */
+    public static String getId(String accountId, String number) {
+        return accountId + "/" + number;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public long getLastInteractionTime() {
+        return lastInteractionTime;
+    }
+
+    /**
+     * @return the type of the last interaction, null if there is none
+     */
+    public IConversationElement.CEType getLastType() {
+        return lastType;
+    }
+
+    public boolean isLastIncoming() {
+        return lastIncoming;
+    }
+
+    public String getLastMessage() {
+        return lastMessage;
+    }
+
+    public long getLastCallDuration() {
+        return lastCallDuration;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setLastText(long time, boolean incoming, String message) {
+        lastInteractionTime = time;
+        lastType = IConversationElement.CEType.TEXT;
+        lastIncoming = incoming;
+        lastMessage = message;
+        lastCallDuration = 0;
+    }
+
+    public void setLastCall(long time, boolean incoming, long duration) {
+        lastInteractionTime = time;
+        lastType = IConversationElement.CEType.CALL;
+        lastIncoming = incoming;
+        lastMessage = null;
+        lastCallDuration = duration;
+    }
+
+    public void setLastFile(long time, boolean incoming, String displayName) {
+        lastInteractionTime = time;
+        lastType = IConversationElement.CEType.FILE;
+        lastIncoming = incoming;
+        lastMessage = displayName;
+        lastCallDuration = 0;
+    }
+
+    public void setUnreadCount(int unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Elements of a conversation sorted by date, elements of the same date in insertion order.
+ * <p>
+ * An element is added once: calls are identified by their content, messages and file transfers by their database id.
+ * Elements added after the last one are appended, older elements, like a history page, are merged on the next read.
+ * <p>
+ * Messages and file transfers are also indexed by id, to apply their status updates in O(1).
+ */
+public class ConversationTimeline {
+
+    // approximate memory used by an element, its indexes and its slot in the timeline
+    private static final int ELEMENT_SIZE = 160;
+
+    private static final Comparator<IConversationElement> DATE_COMPARATOR = (lhs, rhs) -> {
+        long lhsDate = lhs.getDate();
+        long rhsDate = rhs.getDate();
+        return lhsDate < rhsDate ? -1 : (lhsDate == rhsDate ? 0 : 1);
+    };
+
+    private final ArrayList<IConversationElement> mElements = new ArrayList<>(32);
+    private final List<IConversationElement> mElementsView = Collections.unmodifiableList(mElements);
+    // older elements, to merge before the next read
+    private final ArrayList<IConversationElement> mPending = new ArrayList<>();
+    private final Set<HistoryCall> mCalls = new HashSet<>();
+    private final Map<Long, TextMessage> mMessages = new HashMap<>();
+    private final Map<Long, DataTransfer> mTransfers = new HashMap<>();
+    // transfers added before being saved in the database, without id yet
+    private final List<DataTransfer> mUnsavedTransfers = new ArrayList<>();
+    private long mEstimatedSize = 0;
+
+    /**
+     * @return the approximate memory used by the element, in bytes
+     */
+    private static long estimateSize(IConversationElement element) {
+        String text = null;
+        switch (element.getType()) {
+            case TEXT:
+                text = ((TextMessage) element).getMessage();
+                break;
+            case FILE:
+                text = ((DataTransfer) element).getDisplayName();
+                break;
+        }
+        return ELEMENT_SIZE + (text == null ? 0 : 2L * text.length());
+    }
+
+    /**
+     * Adds the element to the indexes
+     *
+     * @return false if the element was already in the timeline
+     */
+    private boolean index(IConversationElement element) {
+        switch (element.getType()) {
+            case CALL:
+                return mCalls.add((HistoryCall) element);
+            case TEXT: {
+                TextMessage message = (TextMessage) element;
+                long id = message.getId();
+                if (id == 0) {
+                    return true;
+                }
+                if (mMessages.containsKey(id)) {
+                    return false;
+                }
+                mMessages.put(id, message);
+                return true;
+            }
+            case FILE: {
+                DataTransfer transfer = (DataTransfer) element;
+                long id = transfer.getId();
+                if (id == 0) {
+                    if (mUnsavedTransfers.contains(transfer)) {
+                        return false;
+                    }
+                    mUnsavedTransfers.add(transfer);
+                    return true;
+                }
+                if (getTransfer(id) != null) {
+                    return false;
+                }
+                mTransfers.put(id, transfer);
+                return true;
+            }
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return false if the element was already in the timeline
+     */
+    public boolean add(IConversationElement element) {
+        if (!index(element)) {
+            return false;
+        }
+        mEstimatedSize += estimateSize(element);
+        int size = mElements.size();
+        if (mPending.isEmpty() && (size == 0 || DATE_COMPARATOR.compare(mElements.get(size - 1), element) <= 0)) {
+            mElements.add(element);
+        } else {
+            mPending.add(element);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of elements added, the others were already in the timeline
+     */
+    public int addAll(Collection<? extends IConversationElement> elements) {
+        int added = 0;
+        for (IConversationElement element : elements) {
+            if (add(element)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    public boolean contains(IConversationElement element) {
+        switch (element.getType()) {
+            case CALL:
+                return mCalls.contains(element);
+            case TEXT: {
+                long id = ((TextMessage) element).getId();
+                if (id != 0) {
+                    return mMessages.containsKey(id);
+                }
+                break;
+            }
+            case FILE: {
+                long id = ((DataTransfer) element).getId();
+                if (id != 0) {
+                    return getTransfer(id) != null;
+                }
+                break;
+            }
+        }
+        return mElements.contains(element) || mPending.contains(element);
+    }
+
+    /**
+     * @return the message of the timeline with this id, or null
+     */
+    public TextMessage getTextMessage(long id) {
+        return mMessages.get(id);
+    }
+
+    /**
+     * @param id database id of the transfer
+     * @return the transfer of the timeline with this id, or null
+     */
+    public DataTransfer getTransfer(long id) {
+        DataTransfer transfer = mTransfers.get(id);
+        if (transfer == null && !mUnsavedTransfers.isEmpty()) {
+            // index the transfers saved since they were added
+            Iterator<DataTransfer> it = mUnsavedTransfers.iterator();
+            while (it.hasNext()) {
+                DataTransfer unsaved = it.next();
+                if (unsaved.getId() != 0) {
+                    it.remove();
+                    if (!mTransfers.containsKey(unsaved.getId())) {
+                        mTransfers.put(unsaved.getId(), unsaved);
+                    }
+                }
+            }
+            transfer = mTransfers.get(id);
+        }
+        return transfer;
+    }
+
+    /**
+     * Merges the pending elements, in O(n + k log k)
+     */
+    private void merge() {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        // stable: pending elements stay after the elements of the same date
+        Collections.sort(mPending, DATE_COMPARATOR);
+        ArrayList<IConversationElement> elements = new ArrayList<>(mElements);
+        mElements.clear();
+        mElements.ensureCapacity(elements.size() + mPending.size());
+        int i = 0;
+        int j = 0;
+        while (i < elements.size() && j < mPending.size()) {
+            if (DATE_COMPARATOR.compare(mPending.get(j), elements.get(i)) < 0) {
+                mElements.add(mPending.get(j++));
+            } else {
+                mElements.add(elements.get(i++));
+            }
+        }
+        mElements.addAll(elements.subList(i, elements.size()));
+        mElements.addAll(mPending.subList(j, mPending.size()));
+        mPending.clear();
+    }
+
+    /**
+     * @return the sorted elements, not to be modified
+     */
+    public List<IConversationElement> getElements() {
+        merge();
+        return mElementsView;
+    }
+
+    public IConversationElement get(int index) {
+        merge();
+        return mElements.get(index);
+    }
+
+    public int size() {
+        return mElements.size() + mPending.size();
+    }
+
+    /**
+     * @return the approximate memory used by the timeline, in bytes
+     */
+    public long getEstimatedSize() {
+        return mEstimatedSize;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the elements from index {@code from} inclusive to {@code to} exclusive, not to be modified
+     */
+    public List<IConversationElement> subList(int from, int to) {
+        return getElements().subList(from, to);
+    }
+
+    /**
+     * @return the index of the first element not older than the date
+     */
+    public int indexOf(long date) {
+        merge();
+        int low = 0;
+        int high = mElements.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mElements.get(mid).getDate() < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the elements dated from {@code fromDate} inclusive to {@code toDate} exclusive, not to be modified
+     */
+    public List<IConversationElement> getRange(long fromDate, long toDate) {
+        int from = indexOf(fromDate);
+        return subList(from, Math.max(from, indexOf(toDate)));
+    }
+
+    public void clear() {
+        mElements.clear();
+        mPending.clear();
+        mCalls.clear();
+        mMessages.clear();
+        mTransfers.clear();
+        mUnsavedTransfers.clear();
+        mEstimatedSize = 0;
+    }
+}
@@ -103,7 +103,15 @@ public class HistoryCall extends ConversationElement implements Serializable {
     }
 
     public String getDurationString() {
-        long duration = (call_end - call_start) / 1000;
+        return getDurationString(call_end - call_start);
+    }
+
+    /**
+     * @param durationMs a call duration, in milliseconds
+     * @return the duration formatted for display
+     */
+    public static String getDurationString(long durationMs) {
+        long duration = durationMs / 1000;
         if (duration < 60) {
             return String.format(Locale.getDefault(), "%02d secs", duration);
         }
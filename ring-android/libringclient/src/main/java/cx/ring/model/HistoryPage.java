@@ -0,0 +1,71 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.model;
+
+import java.util.List;
+
+/**
+ * A window of history rows, all older than a timestamp cursor.
+ * The oldest timestamp of the page is the cursor to use to fetch the next (older) page.
+ */
+public class HistoryPage {
+
+    private final List<HistoryCall> mCalls;
+    private final List<HistoryText> mTexts;
+    private final List<DataTransfer> mTransfers;
+    private final long mOldestTimestamp;
+    private final boolean mHasMore;
+
+    public HistoryPage(List<HistoryCall> calls, List<HistoryText> texts, List<DataTransfer> transfers, long oldestTimestamp, boolean hasMore) {
+        mCalls = calls;
+        mTexts = texts;
+        mTransfers = transfers;
+        mOldestTimestamp = oldestTimestamp;
+        mHasMore = hasMore;
+    }
+
+    public List<HistoryCall> getCalls() {
+        return mCalls;
+    }
+
+    public List<HistoryText> getTexts() {
+        return mTexts;
+    }
+
+    public List<DataTransfer> getTransfers() {
+        return mTransfers;
+    }
+
+    /**
+     * @return the timestamp of the oldest row of this page, to be used as the cursor of the next page
+     */
+    public long getOldestTimestamp() {
+        return mOldestTimestamp;
+    }
+
+    /**
+     * @return true if older rows may exist before this page
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    public boolean isEmpty() {
+        return mCalls.isEmpty() && mTexts.isEmpty() && mTransfers.isEmpty();
+    }
+}
@@ -19,9 +19,13 @@
  */
 package cx.ring.model;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+/**
+ * An event broadcast by a service, with a small set of inputs.
+ * Inputs are kept in arrays scanned linearly: events hold a handful of inputs, so this is faster and
+ * lighter than a map. Primitive inputs are stored unboxed and boxed only when read as objects.
+ */
 public class ServiceEvent {
 
     public enum EventType {
@@ -107,6 +111,7 @@ public class ServiceEvent {
         HISTORY_CALLS,
         HISTORY_TEXTS,
         HISTORY_TRANSFERS,
+        HISTORY_SUMMARIES,
         REMOTE,
         ERROR,
         BUDDY_URI,
@@ -121,8 +126,18 @@ public class ServiceEvent {
         VIDEO_CALL
     }
 
-    private EventType mType;
-    private Map<EventInput, Object> mInputs = new HashMap<>();
+    private static final int INITIAL_CAPACITY = 4;
+
+    // markers of the primitive inputs, stored in mPrimitives
+    private static final Object INT_VALUE = new Object();
+    private static final Object LONG_VALUE = new Object();
+    private static final Object BOOLEAN_VALUE = new Object();
+
+    private final EventType mType;
+    private EventInput[] mInputs = new EventInput[INITIAL_CAPACITY];
+    private Object[] mValues = new Object[INITIAL_CAPACITY];
+    private long[] mPrimitives;
+    private int mSize = 0;
 
     public ServiceEvent(EventType type) {
         mType = type;
@@ -132,23 +147,80 @@ public class ServiceEvent {
         return mType;
     }
 
+    private int indexOf(EventInput input) {
+        for (int i = 0; i < mSize; i++) {
+            if (mInputs[i] == input) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int put(EventInput input, Object value) {
+        int index = indexOf(input);
+        if (index < 0) {
+            if (mSize == mInputs.length) {
+                mInputs = Arrays.copyOf(mInputs, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+                if (mPrimitives != null) {
+                    mPrimitives = Arrays.copyOf(mPrimitives, mSize * 2);
+                }
+            }
+            index = mSize++;
+            mInputs[index] = input;
+        }
+        mValues[index] = value;
+        return index;
+    }
+
+    private void putPrimitive(EventInput input, Object marker, long value) {
+        int index = put(input, marker);
+        if (mPrimitives == null) {
+            mPrimitives = new long[mInputs.length];
+        }
+        mPrimitives[index] = value;
+    }
+
     public void addEventInput(EventInput input, Object value) {
-        mInputs.put(input, value);
+        put(input, value);
     }
 
-    public <T> T getEventInput(EventInput input, Class<T> clazz) {
-        Object value = mInputs.get(input);
-        if (value != null && value.getClass().isAssignableFrom(clazz)) {
-            return (T) mInputs.get(input);
+    public void addEventInput(EventInput input, int value) {
+        putPrimitive(input, INT_VALUE, value);
+    }
+
+    public void addEventInput(EventInput input, long value) {
+        putPrimitive(input, LONG_VALUE, value);
+    }
+
+    public void addEventInput(EventInput input, boolean value) {
+        putPrimitive(input, BOOLEAN_VALUE, value ? 1 : 0);
+    }
+
+    private Object getValue(int index) {
+        Object value = mValues[index];
+        if (value == INT_VALUE) {
+            return (int) mPrimitives[index];
+        } else if (value == LONG_VALUE) {
+            return mPrimitives[index];
+        } else if (value == BOOLEAN_VALUE) {
+            return mPrimitives[index] != 0;
         }
+        return value;
+    }
 
-        return null;
+    public <T> T getEventInput(EventInput input, Class<T> clazz) {
+        return getEventInput(input, clazz, null);
     }
 
     public <T> T getEventInput(EventInput input, Class<T> clazz, T defaultValue) {
-        Object value = mInputs.get(input);
-        if (value != null && value.getClass().isAssignableFrom(clazz)) {
-            return (T) mInputs.get(input);
+        int index = indexOf(input);
+        if (index < 0) {
+            return defaultValue;
+        }
+        Object value = getValue(index);
+        if (clazz.isInstance(value)) {
+            return clazz.cast(value);
         }
 
         return defaultValue;
@@ -159,7 +231,37 @@ public class ServiceEvent {
     }
 
     public int getInt(EventInput input) {
-        return getEventInput(input, Integer.class);
+        return getInt(input, 0);
+    }
+
+    public int getInt(EventInput input, int defaultValue) {
+        int index = indexOf(input);
+        if (index < 0) {
+            return defaultValue;
+        } else if (mValues[index] == INT_VALUE) {
+            return (int) mPrimitives[index];
+        }
+        return mValues[index] instanceof Integer ? (Integer) mValues[index] : defaultValue;
+    }
+
+    public long getLong(EventInput input, long defaultValue) {
+        int index = indexOf(input);
+        if (index < 0) {
+            return defaultValue;
+        } else if (mValues[index] == LONG_VALUE || mValues[index] == INT_VALUE) {
+            return mPrimitives[index];
+        }
+        return mValues[index] instanceof Long ? (Long) mValues[index] : defaultValue;
+    }
+
+    public boolean getBoolean(EventInput input, boolean defaultValue) {
+        int index = indexOf(input);
+        if (index < 0) {
+            return defaultValue;
+        } else if (mValues[index] == BOOLEAN_VALUE) {
+            return mPrimitives[index] != 0;
+        }
+        return mValues[index] instanceof Boolean ? (Boolean) mValues[index] : defaultValue;
     }
 
 }
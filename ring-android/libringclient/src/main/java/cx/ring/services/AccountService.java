@@ -27,6 +27,8 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Inject;
@@ -82,6 +84,7 @@ public class AccountService extends Observable {
     private static final String TAG = AccountService.class.getSimpleName();
 
     private static final int VCARD_CHUNK_SIZE = 1000;
+    private static final String NAME_CACHE_FILE = "name_lookup_cache";
 
     @Inject
     @Named("DaemonExecutor")
@@ -91,6 +94,9 @@ public class AccountService extends Observable {
     @Named("ApplicationExecutor")
     ExecutorService mApplicationExecutor;
 
+    @Inject
+    ScheduledExecutorService mScheduledExecutor;
+
     @Inject
     HistoryService mHistoryService;
 
@@ -102,6 +108,9 @@ public class AccountService extends Observable {
     private boolean mHasSipAccount;
     private boolean mHasRingAccount;
     private AtomicBoolean mAccountsLoaded = new AtomicBoolean(false);
+    private NameLookupCache mNameLookupCache;
+    private NameLookupPipeline mNameLookupPipeline;
+    private volatile DaemonPollPump mPollPump;
 
     private final Map<Long, DataTransfer> mDataTransfers = new HashMap<>();
 
@@ -149,36 +158,132 @@ public class AccountService extends Observable {
         });
     }
 
+    /**
+     * Raw state of an account, as read from the daemon
+     */
+    private static class DaemonAccountState {
+        final String accountId;
+        Map<String, String> details;
+        List<Map<String, String>> credentials;
+        Map<String, String> volatileDetails;
+        Map<String, String> devices;
+        List<Map<String, String>> contacts;
+        List<Map<String, String>> trustRequests;
+        // addresses to resolve once the account is in the cache
+        final List<String> lookupAddresses = new ArrayList<>();
+
+        DaemonAccountState(String accountId) {
+            this.accountId = accountId;
+        }
+    }
+
+    /**
+     * Reads the state of all the accounts in a single daemon thread task
+     */
+    private List<DaemonAccountState> loadAccountStatesFromDaemon() {
+        return FutureUtils.executeDaemonThreadCallable(
+                mExecutor,
+                mDeviceRuntimeService.provideDaemonThreadId(),
+                true,
+                (Callable<List<DaemonAccountState>>) () -> {
+                    Log.i(TAG, "loadAccountStatesFromDaemon() thread running...");
+                    List<String> accountIds = new ArrayList<>(Ringservice.getAccountList());
+                    List<DaemonAccountState> states = new ArrayList<>(accountIds.size());
+                    for (String accountId : accountIds) {
+                        DaemonAccountState state = new DaemonAccountState(accountId);
+                        state.details = Ringservice.getAccountDetails(accountId).toNative();
+                        state.credentials = Ringservice.getCredentials(accountId).toNative();
+                        state.volatileDetails = Ringservice.getVolatileAccountDetails(accountId).toNative();
+                        if (AccountConfig.ACCOUNT_TYPE_RING.equals(state.details.get(ConfigKey.ACCOUNT_TYPE.key()))) {
+                            state.devices = Ringservice.getKnownRingDevices(accountId).toNative();
+                            state.contacts = Ringservice.getContacts(accountId).toNative();
+                            state.trustRequests = Ringservice.getTrustRequests(accountId).toNative();
+                        }
+                        states.add(state);
+                    }
+                    return states;
+                }
+        );
+    }
+
+    private static Account buildAccount(DaemonAccountState state) {
+        Account account = new Account(state.accountId, state.details, state.credentials, state.volatileDetails);
+        if (account.isRing()) {
+            account.setDevices(state.devices);
+            account.setContacts(state.contacts);
+            for (Map<String, String> requestInfo : state.trustRequests) {
+                TrustRequest request = new TrustRequest(state.accountId, requestInfo);
+                account.addRequest(request);
+                state.lookupAddresses.add(request.getContactId());
+            }
+            for (CallContact contact : account.getContacts().values()) {
+                state.lookupAddresses.add(contact.getPhones().get(0).getNumber().getRawRingId());
+            }
+        }
+        return account;
+    }
+
+    /**
+     * Builds the accounts in parallel on the application executor.
+     * The calling thread builds the accounts not yet picked by the executor, so this can't starve the pool.
+     */
+    private List<Account> buildAccounts(List<DaemonAccountState> states) {
+        List<FutureTask<Account>> tasks = new ArrayList<>(states.size());
+        for (final DaemonAccountState state : states) {
+            FutureTask<Account> task = new FutureTask<>(() -> buildAccount(state));
+            tasks.add(task);
+            if (tasks.size() > 1) {
+                mApplicationExecutor.execute(task);
+            }
+        }
+        List<Account> accounts = new ArrayList<>(tasks.size());
+        for (FutureTask<Account> task : tasks) {
+            task.run();
+            Account account = FutureUtils.getFutureResult(task);
+            if (account != null) {
+                accounts.add(account);
+            }
+        }
+        return accounts;
+    }
+
     private void refreshAccountsCacheFromDaemon() {
         mAccountsLoaded.set(false);
-        mAccountList = new ArrayList<>();
-        List<String> accountIds = getAccountList();
-        for (String accountId : accountIds) {
-            Map<String, String> details = getAccountDetails(accountId);
-            List<Map<String, String>> credentials = getCredentials(accountId);
-            Map<String, String> volatileAccountDetails = getVolatileAccountDetails(accountId);
-            Account account = new Account(accountId, details, credentials, volatileAccountDetails);
-            mAccountList.add(account);
 
+        long start = System.nanoTime();
+        List<DaemonAccountState> states = loadAccountStatesFromDaemon();
+        if (states == null) {
+            Log.e(TAG, "refreshAccountsCacheFromDaemon: unable to load the accounts from the daemon");
+            states = new ArrayList<>();
+        }
+        long loaded = System.nanoTime();
+
+        List<Account> accounts = buildAccounts(states);
+        boolean hasSipAccount = false;
+        boolean hasRingAccount = false;
+        for (Account account : accounts) {
             if (account.isSip()) {
-                mHasSipAccount = true;
+                hasSipAccount = true;
             } else if (account.isRing()) {
-                mHasRingAccount = true;
-
-                account.setDevices(getKnownRingDevices(accountId));
-                account.setContacts(getContacts(accountId));
-                List<Map<String, String>> requests = getTrustRequests(accountId);
-                for (Map<String, String> requestInfo : requests) {
-                    TrustRequest request = new TrustRequest(accountId, requestInfo);
-                    account.addRequest(request);
-                    // If name is in cache this can be synchronous
-                    lookupAddress(accountId, "", request.getContactId());
-                }
-                for (CallContact contact : account.getContacts().values()) {
-                    lookupAddress(accountId, "", contact.getPhones().get(0).getNumber().getRawRingId());
-                }
+                hasRingAccount = true;
+            }
+        }
+        mHasSipAccount = hasSipAccount;
+        mHasRingAccount = hasRingAccount;
+        mAccountList = accounts;
+        long built = System.nanoTime();
+
+        for (DaemonAccountState state : states) {
+            for (String address : state.lookupAddresses) {
+                // If name is in cache this can be synchronous
+                lookupAddress(state.accountId, "", address);
             }
         }
+        long end = System.nanoTime();
+
+        Log.i(TAG, "refreshAccountsCacheFromDaemon: " + accounts.size() + " accounts, daemon "
+                + (loaded - start) / 1000000L + " ms, build " + (built - loaded) / 1000000L + " ms, lookups "
+                + (end - built) / 1000000L + " ms");
         mAccountsLoaded.set(true);
     }
 
@@ -431,6 +536,20 @@ public class AccountService extends Observable {
         );
     }
 
+    /**
+     * Set by the daemon service once started, to poll the daemon events without delay after a user action
+     */
+    void setPollPump(DaemonPollPump pollPump) {
+        mPollPump = pollPump;
+    }
+
+    private void wakeUpPolling() {
+        DaemonPollPump pollPump = mPollPump;
+        if (pollPump != null) {
+            pollPump.wakeUp();
+        }
+    }
+
     /**
      * Sets the activation state of all the accounts in the Daemon
      */
@@ -450,6 +569,7 @@ public class AccountService extends Observable {
                                 Ringservice.setAccountActive(accountId, active);
                             }
                         }
+                        wakeUpPolling();
                         return true;
 
                 }
@@ -508,6 +628,7 @@ public class AccountService extends Observable {
                     return true;
                 }
         );
+        getNameLookupCache().clear(accountId);
     }
 
     /**
@@ -893,6 +1014,7 @@ public class AccountService extends Observable {
                 () -> {
                     Log.i(TAG, "sendTrustRequest() thread running...");
                     Ringservice.sendTrustRequest(accountId, to, message);
+                    wakeUpPolling();
                     return true;
                 }
         );
@@ -961,15 +1083,58 @@ public class AccountService extends Observable {
                 () -> {
                     Log.i(TAG, "lookupName() thread running...");
                     Ringservice.lookupName(account, nameserver, name);
+                    wakeUpPolling();
                     return true;
                 }
         );
     }
 
     /**
-     * Reverse looks up the address in the blockchain to find the name
+     * @return the pipeline of the name lookups typed by the user, shared by the search fields
+     */
+    public synchronized NameLookupPipeline getNameLookupPipeline() {
+        if (mNameLookupPipeline == null) {
+            mNameLookupPipeline = new NameLookupPipeline(mScheduledExecutor, new NameLookupPipeline.Resolver() {
+                @Override
+                public void lookupName(String accountId, String nameserver, String name) {
+                    AccountService.this.lookupName(accountId, nameserver, name);
+                }
+
+                @Override
+                public void onResult(String accountId, int state, String address, String name) {
+                    onRegisteredNameFound(accountId, state, address, name);
+                }
+            });
+        }
+        return mNameLookupPipeline;
+    }
+
+    /**
+     * @return the cache of the name server resolutions, loaded from the disk on the scheduler on first use
+     */
+    public synchronized NameLookupCache getNameLookupCache() {
+        if (mNameLookupCache == null) {
+            mNameLookupCache = new NameLookupCache(mScheduledExecutor,
+                    new File(mDeviceRuntimeService.getCacheDir(), NAME_CACHE_FILE),
+                    this::sendLookupAddress);
+            mNameLookupCache.load();
+        }
+        return mNameLookupCache;
+    }
+
+    /**
+     * Reverse looks up the address in the blockchain to find the name.
+     * Cached resolutions are reported on the daemon executor, as the results of the name server,
+     * other lookups are deduplicated and rate limited.
      */
     public void lookupAddress(final String account, final String nameserver, final String address) {
+        NameLookupCache.Resolution resolution = getNameLookupCache().lookupAddress(account, nameserver, address);
+        if (resolution != null) {
+            mExecutor.execute(() -> onRegisteredNameFound(account, resolution.getState(), address, resolution.getName()));
+        }
+    }
+
+    private void sendLookupAddress(final String account, final String nameserver, final String address) {
 
         FutureUtils.executeDaemonThreadCallable(
                 mExecutor,
@@ -978,6 +1143,7 @@ public class AccountService extends Observable {
                 () -> {
                     Log.i(TAG, "lookupAddress() " + address);
                     Ringservice.lookupAddress(account, nameserver, address);
+                    wakeUpPolling();
                     return true;
                 }
         );
@@ -1222,7 +1388,12 @@ public class AccountService extends Observable {
 
     public void registeredNameFound(String accountId, int state, String address, String name) {
         Log.d(TAG, "registeredNameFound: " + accountId + ", " + state + ", " + name + ", " + address);
+        getNameLookupCache().onLookupResult(accountId, state, address, name);
+        getNameLookupPipeline().onLookupResult(accountId, state, address, name);
+        onRegisteredNameFound(accountId, state, address, name);
+    }
 
+    private void onRegisteredNameFound(String accountId, int state, String address, String name) {
         Account account = getAccount(accountId);
         if (account != null) {
             if (state == 0) {
@@ -1319,7 +1490,7 @@ public class AccountService extends Observable {
             transfer = new DataTransfer(transferId, info.getDisplayName(),
                     info.getFlags() == 0, info.getTotalSize(),
                     info.getBytesProgress(), info.getPeer(), info.getAccountId());
-            mHistoryService.insertDataTransfer(transfer);
+            mHistoryService.queueDataTransfer(transfer);
             mDataTransfers.put(transferId, transfer);
         } else {
             transfer.setEventCode(dataEvent);
@@ -46,6 +46,9 @@ public class CallService extends Observable {
 
     private final static String TAG = CallService.class.getSimpleName();
     private final static String MIME_TEXT_PLAIN = "text/plain";
+    // keys of the RTCP report stats: packet loss in percent, jitter in milliseconds
+    private final static String RTCP_PACKET_LOSS = "PL";
+    private final static String RTCP_JITTER = "JI";
 
     @Inject
     @Named("DaemonExecutor")
@@ -63,7 +66,25 @@ public class CallService extends Observable {
     @Inject
     DeviceRuntimeService mDeviceRuntimeService;
 
+    @Inject
+    HardwareService mHardwareService;
+
     private Map<String, SipCall> currentCalls = new HashMap<>();
+    private volatile DaemonPollPump mPollPump;
+
+    /**
+     * Set by the daemon service once started, to poll the daemon events without delay after a user action
+     */
+    void setPollPump(DaemonPollPump pollPump) {
+        mPollPump = pollPump;
+    }
+
+    private void wakeUpPolling() {
+        DaemonPollPump pollPump = mPollPump;
+        if (pollPump != null) {
+            pollPump.wakeUp();
+        }
+    }
 
     public SipCall placeCall(final String account, final String number, final boolean audioOnly) {
         return FutureUtils.executeDaemonThreadCallable(
@@ -77,6 +98,7 @@ public class CallService extends Observable {
                     volatileDetails.put(SipCall.KEY_AUDIO_ONLY, String.valueOf(audioOnly));
 
                     String callId = Ringservice.placeCall(account, number, StringMap.toSwig(volatileDetails));
+                    wakeUpPolling();
                     if (callId == null || callId.isEmpty())
                         return null;
                     if (audioOnly) {
@@ -100,6 +122,7 @@ public class CallService extends Observable {
                     Log.i(TAG, "refuse() thread running...");
                     Ringservice.refuse(callId);
                     Ringservice.hangUp(callId);
+                    wakeUpPolling();
                     return true;
                 }
         );
@@ -113,6 +136,7 @@ public class CallService extends Observable {
                 () -> {
                     Log.i(TAG, "accept() thread running...");
                     Ringservice.accept(callId);
+                    wakeUpPolling();
                     return true;
                 }
         );
@@ -126,6 +150,7 @@ public class CallService extends Observable {
                 () -> {
                     Log.i(TAG, "hangUp() thread running...");
                     Ringservice.hangUp(callId);
+                    wakeUpPolling();
                     return true;
                 }
         );
@@ -361,7 +386,9 @@ public class CallService extends Observable {
                     Log.i(TAG, "sendAccountTextMessage() thread running... " + accountId + " " + to + " " + msg);
                     StringMap msgs = new StringMap();
                     msgs.setRaw("text/plain", Blob.fromString(msg));
-                    return Ringservice.sendAccountTextMessage(accountId, to, msgs);
+                    Long messageId = Ringservice.sendAccountTextMessage(accountId, to, msgs);
+                    wakeUpPolling();
+                    return messageId;
                 }
         );
     }
@@ -429,6 +456,7 @@ public class CallService extends Observable {
 
                 if (call.getCallState() == SipCall.State.OVER) {
                     currentCalls.remove(call.getCallId());
+                    mHardwareService.onCallEnded(call.getCallId());
                 }
             }
         } catch (Exception e) {
@@ -478,8 +506,12 @@ public class CallService extends Observable {
 
     void onRtcpReportReceived(String callId, IntegerMap stats) {
         Log.i(TAG, "on RTCP report received: " + callId);
+        // adapts the camera capture to the network conditions of the call
+        if (stats.has_key(RTCP_PACKET_LOSS) && stats.has_key(RTCP_JITTER)) {
+            mHardwareService.onRtcpReport(callId, stats.get(RTCP_PACKET_LOSS), stats.get(RTCP_JITTER));
+        }
         setChanged();
-        ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.CONFERENCE_CHANGED);
+        ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.RTCP_REPORT_RECEIVED);
         event.addEventInput(ServiceEvent.EventInput.CALL_ID, callId);
         event.addEventInput(ServiceEvent.EventInput.STATS, stats);
         notifyObservers(event);
@@ -0,0 +1,206 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import cx.ring.utils.Log;
+
+/**
+ * Caches the capabilities of each camera, so that they are not read by opening the camera when a call starts.
+ * <p>
+ * - capabilities are persisted in a file, tied to the device build: a system update may change them
+ * - an entry is refreshed by the caller when the camera facing or orientation changed, ie for an external camera
+ */
+public class CameraCapabilityCache {
+
+    private static final String TAG = CameraCapabilityCache.class.getSimpleName();
+
+    private static final int FILE_VERSION = 1;
+
+    public static class Capabilities {
+        private final int mFacing;
+        private final int mOrientation;
+        private final int[] mFormats;
+        private final int[] mSizes;
+        private final int[] mFpsRanges;
+
+        /**
+         * @param sizes     preview sizes, as width and height pairs
+         * @param fpsRanges preview frame rate ranges, as min and max pairs, in frames per thousand seconds
+         */
+        public Capabilities(int facing, int orientation, int[] formats, int[] sizes, int[] fpsRanges) {
+            mFacing = facing;
+            mOrientation = orientation;
+            mFormats = formats;
+            mSizes = sizes;
+            mFpsRanges = fpsRanges;
+        }
+
+        public int getFacing() {
+            return mFacing;
+        }
+
+        public int getOrientation() {
+            return mOrientation;
+        }
+
+        public int[] getFormats() {
+            return mFormats;
+        }
+
+        public int[] getSizes() {
+            return mSizes;
+        }
+
+        public int[] getFpsRanges() {
+            return mFpsRanges;
+        }
+    }
+
+    private final File mFile;
+    private final String mDeviceKey;
+    private final Map<String, Capabilities> mCapabilities = new HashMap<>();
+    private boolean mLoaded = false;
+    private boolean mChanged = false;
+
+    /**
+     * @param deviceKey identifies the device build, the persisted capabilities of another build are ignored
+     */
+    public CameraCapabilityCache(File file, String deviceKey) {
+        mFile = file;
+        mDeviceKey = deviceKey == null ? "" : deviceKey;
+    }
+
+    public synchronized Capabilities get(String camId) {
+        load();
+        return mCapabilities.get(camId);
+    }
+
+    public synchronized void put(String camId, Capabilities capabilities) {
+        load();
+        mCapabilities.put(camId, capabilities);
+        mChanged = true;
+    }
+
+    /**
+     * Removes the cameras not available anymore
+     */
+    public synchronized void retain(Collection<String> camIds) {
+        load();
+        if (mCapabilities.keySet().retainAll(camIds)) {
+            mChanged = true;
+        }
+    }
+
+    public synchronized int size() {
+        load();
+        return mCapabilities.size();
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (mFile == null || !mFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "load: unsupported cache version, ignoring " + mFile);
+                return;
+            }
+            if (!mDeviceKey.equals(in.readUTF())) {
+                Log.w(TAG, "load: capabilities of another device build, ignoring " + mFile);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String camId = in.readUTF();
+                int facing = in.readInt();
+                int orientation = in.readInt();
+                int[] formats = readArray(in);
+                int[] sizes = readArray(in);
+                int[] fpsRanges = readArray(in);
+                mCapabilities.put(camId, new Capabilities(facing, orientation, formats, sizes, fpsRanges));
+            }
+            Log.d(TAG, "load: " + mCapabilities.size() + " cameras loaded");
+        } catch (IOException e) {
+            Log.e(TAG, "Error while loading the camera capabilities", e);
+            mCapabilities.clear();
+        }
+    }
+
+    /**
+     * Writes the capabilities to the file if they changed since the last save
+     */
+    public synchronized void save() {
+        if (!mChanged || mFile == null) {
+            return;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(mDeviceKey);
+            out.writeInt(mCapabilities.size());
+            for (Map.Entry<String, Capabilities> entry : mCapabilities.entrySet()) {
+                Capabilities capabilities = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(capabilities.mFacing);
+                out.writeInt(capabilities.mOrientation);
+                writeArray(out, capabilities.mFormats);
+                writeArray(out, capabilities.mSizes);
+                writeArray(out, capabilities.mFpsRanges);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error while saving the camera capabilities", e);
+            return;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.e(TAG, "Error while saving the camera capabilities: can't rename " + tmp);
+            return;
+        }
+        mChanged = false;
+    }
+
+    private static int[] readArray(DataInputStream in) throws IOException {
+        int[] array = new int[in.readInt()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = in.readInt();
+        }
+        return array;
+    }
+
+    private static void writeArray(DataOutputStream out, int[] array) throws IOException {
+        out.writeInt(array.length);
+        for (int value : array) {
+            out.writeInt(value);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quality level of the camera capture, adapted to the packet loss and jitter of the RTCP reports of the calls.
+ * <p>
+ * Level 0 is the capture negotiated with the daemon, each higher level lowers the frame rate.
+ * The level goes down quickly, after a few bad reports, and goes back up slowly, after a longer period of good reports,
+ * so that the capture does not oscillate between two levels on a link at the limit.
+ * The level is tracked for each call, ie each participant of a conference, and the capture follows the worst one:
+ * the good reports of a call do not hide the bad reports of another one.
+ */
+public class CaptureQualityController {
+
+    public static final int MAX_LEVEL = 3;
+
+    // packet loss, in percent
+    static final int HIGH_PACKET_LOSS = 5;
+    static final int LOW_PACKET_LOSS = 1;
+    // interarrival jitter, in milliseconds
+    static final int HIGH_JITTER = 60;
+    static final int LOW_JITTER = 20;
+
+    static final int BAD_REPORTS_TO_STEP_DOWN = 2;
+    static final int GOOD_REPORTS_TO_STEP_UP = 5;
+    // minimum time after a change before stepping up again
+    static final long STEP_UP_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static class CallQuality {
+        private int mLevel = 0;
+        private int mBadReports = 0;
+        private int mGoodReports = 0;
+        private long mLastChangeTime = 0;
+
+        void onReport(int packetLoss, int jitter, long now) {
+            if (packetLoss >= HIGH_PACKET_LOSS || jitter >= HIGH_JITTER) {
+                mGoodReports = 0;
+                if (++mBadReports >= BAD_REPORTS_TO_STEP_DOWN && mLevel < MAX_LEVEL) {
+                    setLevel(mLevel + 1, now);
+                }
+            } else if (packetLoss <= LOW_PACKET_LOSS && jitter <= LOW_JITTER) {
+                mBadReports = 0;
+                if (++mGoodReports >= GOOD_REPORTS_TO_STEP_UP && mLevel > 0 && now - mLastChangeTime >= STEP_UP_DELAY_MS) {
+                    setLevel(mLevel - 1, now);
+                }
+            } else {
+                // between the thresholds: keep the current level
+                mBadReports = 0;
+                mGoodReports = 0;
+            }
+        }
+
+        private void setLevel(int level, long now) {
+            mLevel = level;
+            mLastChangeTime = now;
+            mBadReports = 0;
+            mGoodReports = 0;
+        }
+    }
+
+    private final Map<String, CallQuality> mCalls = new HashMap<>();
+
+    /**
+     * @param callId     call of the report
+     * @param packetLoss lost packets, in percent
+     * @param jitter     interarrival jitter, in milliseconds
+     * @param now        time of the report, in milliseconds
+     * @return the capture quality level after the report, the worst of the calls
+     */
+    public synchronized int onReport(String callId, int packetLoss, int jitter, long now) {
+        CallQuality call = mCalls.get(callId);
+        if (call == null) {
+            call = new CallQuality();
+            mCalls.put(callId, call);
+        }
+        call.onReport(packetLoss, jitter, now);
+        return getLevel();
+    }
+
+    /**
+     * Forgets the reports of the call, ie when it ends
+     *
+     * @return the capture quality level of the other calls
+     */
+    public synchronized int removeCall(String callId) {
+        mCalls.remove(callId);
+        return getLevel();
+    }
+
+    /**
+     * @return the worst level of the calls
+     */
+    public synchronized int getLevel() {
+        int level = 0;
+        for (CallQuality call : mCalls.values()) {
+            level = Math.max(level, call.mLevel);
+        }
+        return level;
+    }
+
+    /**
+     * Goes back to the negotiated capture, ie for a new call
+     */
+    public synchronized void reset() {
+        mCalls.clear();
+    }
+
+    /**
+     * @param rate negotiated frame rate
+     * @return the frame rate of the capture at this level, in the unit of the negotiated rate
+     */
+    public static int getFrameRate(int level, int rate) {
+        switch (level) {
+            case 0:
+                return rate;
+            case 1:
+                return rate * 3 / 4;
+            case 2:
+                return rate / 2;
+            default:
+                return rate / 3;
+        }
+    }
+}
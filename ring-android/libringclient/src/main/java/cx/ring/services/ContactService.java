@@ -32,6 +32,7 @@ import javax.inject.Named;
 
 import cx.ring.model.Account;
 import cx.ring.model.CallContact;
+import cx.ring.model.Phone;
 import cx.ring.model.ServiceEvent;
 import cx.ring.model.Settings;
 import cx.ring.model.Uri;
@@ -68,6 +69,10 @@ public abstract class ContactService extends Observable {
     private Map<String, CallContact> mContactsRing = new HashMap<>();
     private String mAccountId;
 
+    // canonical number -> contact indexes of mContactList and mContactsRing
+    private Map<String, CallContact> mContactListByNumber = new HashMap<>();
+    private Map<String, CallContact> mContactsRingByNumber = new HashMap<>();
+
     public abstract Map<Long, CallContact> loadContactsFromSystem(boolean loadRingContacts, boolean loadSipContacts);
 
     protected abstract CallContact findContactByIdFromSystem(Long contactId, String contactKey);
@@ -94,20 +99,70 @@ public abstract class ContactService extends Observable {
         mApplicationExecutor.submit(() -> {
             Settings settings = mPreferencesService.loadSettings();
             if (settings.isAllowSystemContacts() && mDeviceRuntimeService.hasContactPermission()) {
-                mContactList = loadContactsFromSystem(loadRingContacts, loadSipContacts);
+                Map<Long, CallContact> contactList = loadContactsFromSystem(loadRingContacts, loadSipContacts);
+                Map<String, CallContact> contactListByNumber = new HashMap<>(contactList.size());
+                for (CallContact contact : contactList.values()) {
+                    indexContact(contactListByNumber, contact);
+                }
+                mContactList = contactList;
+                mContactListByNumber = contactListByNumber;
             }
-            mContactsRing.clear();
             mAccountId = account.getAccountID();
             Map<String, CallContact> ringContacts = account.getContacts();
+            Map<String, CallContact> contactsRing = new HashMap<>(ringContacts.size());
+            Map<String, CallContact> contactsRingByNumber = new HashMap<>(ringContacts.size());
             for (CallContact contact : ringContacts.values()) {
-                mContactsRing.put(contact.getPhones().get(0).getNumber().getRawUriString(), contact);
+                contactsRing.put(contact.getPhones().get(0).getNumber().getRawUriString(), contact);
+                indexContact(contactsRingByNumber, contact);
             }
+            mContactsRing = contactsRing;
+            mContactsRingByNumber = contactsRingByNumber;
             setChanged();
             ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.CONTACTS_CHANGED);
             notifyObservers(event);
         });
     }
 
+    /**
+     * @return a key identifying the number like Uri.equals does, whatever the representation of the Ring ids
+     */
+    static String getCanonicalNumber(Uri number) {
+        if (number.isRingId()) {
+            return number.getRawRingId();
+        }
+        return number.getUsername() + "@" + number.getHost();
+    }
+
+    private static void indexContact(Map<String, CallContact> index, CallContact contact) {
+        for (Phone phone : contact.getPhones()) {
+            indexNumber(index, contact, phone.getNumber());
+        }
+    }
+
+    private static void indexNumber(Map<String, CallContact> index, CallContact contact, Uri number) {
+        if (number != null && !number.isEmpty()) {
+            index.put(getCanonicalNumber(number), contact);
+        }
+    }
+
+    private void putContactList(CallContact contact) {
+        mContactList.put(contact.getId(), contact);
+        indexContact(mContactListByNumber, contact);
+    }
+
+    private void putContactRing(String number, CallContact contact) {
+        mContactsRing.put(number, contact);
+        indexContact(mContactsRingByNumber, contact);
+    }
+
+    /**
+     * @return the user settings, cached by the preferences service
+     */
+    private Settings getSettings() {
+        Settings settings = mPreferencesService.getUserSettings();
+        return settings == null ? mPreferencesService.loadSettings() : settings;
+    }
+
     public void updateContactUserName(Uri contactId, String userName) {
         CallContact callContact = getContact(contactId);
         callContact.setUsername(userName);
@@ -123,9 +178,9 @@ public abstract class ContactService extends Observable {
 
         if (contact.getId() == CallContact.UNKNOWN_ID) {
             Log.w(TAG, "addContact " + contact);
-            mContactsRing.put(contact.getPhones().get(0).getNumber().getRawUriString(), contact);
+            putContactRing(contact.getPhones().get(0).getNumber().getRawUriString(), contact);
         } else {
-            mContactList.put(contact.getId(), contact);
+            putContactList(contact);
         }
     }
 
@@ -143,10 +198,9 @@ public abstract class ContactService extends Observable {
             return contact;
         }
 
-        for (CallContact c : mContactList.values()) {
-            if (c.hasNumber(uri)) {
-                return c;
-            }
+        contact = mContactListByNumber.get(getCanonicalNumber(uri));
+        if (contact != null) {
+            return contact;
         }
 
         return CallContact.buildUnknown(uri);
@@ -223,14 +277,12 @@ public abstract class ContactService extends Observable {
             return null;
         }
 
-        Settings settings = mPreferencesService.loadSettings();
-
         CallContact contact = mContactList.get(id);
-        if (contact == null && (settings.isAllowSystemContacts() && mDeviceRuntimeService.hasContactPermission())) {
+        if (contact == null && (getSettings().isAllowSystemContacts() && mDeviceRuntimeService.hasContactPermission())) {
             Log.w(TAG, "getContactById : cache miss for " + id);
             contact = findContactByIdFromSystem(id, key);
             if (contact != null) {
-                mContactList.put(id, contact);
+                putContactList(contact);
             }
         }
         return contact;
@@ -265,23 +317,21 @@ public abstract class ContactService extends Observable {
         }
 
         // Look for other contact
-        for (CallContact c : mContactsRing.values()) {
-            if (c.hasNumber(searchedCanonicalNumber)) {
-                return c;
-            }
+        CallContact contact = mContactsRingByNumber.get(getCanonicalNumber(uri));
+        if (contact != null) {
+            return contact;
         }
 
-        Settings settings = mPreferencesService.loadSettings();
-        if (settings.isAllowSystemContacts() && mDeviceRuntimeService.hasContactPermission()) {
-            CallContact contact = findContactByNumberFromSystem(searchedCanonicalNumber);
+        if (getSettings().isAllowSystemContacts() && mDeviceRuntimeService.hasContactPermission()) {
+            contact = findContactByNumberFromSystem(searchedCanonicalNumber);
             if (contact != null) {
-                mContactList.put(contact.getId(), contact);
+                putContactList(contact);
                 return contact;
             }
         }
 
-        CallContact contact = CallContact.buildUnknown(uri);
-        mContactsRing.put(searchedCanonicalNumber, contact);
+        contact = CallContact.buildUnknown(uri);
+        putContactRing(searchedCanonicalNumber, contact);
         return contact;
     }
 
@@ -295,6 +345,7 @@ public abstract class ContactService extends Observable {
         CallContact contact = findContactById(contactId, contactKey);
         if (contact != null) {
             contact.addPhoneNumber(contactNumber);
+            indexNumber(mContactListByNumber, contact, contactNumber);
         } else {
             if (contactId > CallContact.DEFAULT_ID) {
                 Log.d(TAG, "Can't find contact with id " + contactId);
@@ -0,0 +1,256 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cx.ring.utils.Log;
+
+/**
+ * Runs the daemon event polling on the daemon executor.
+ * The polling interval is the minimum interval of the policy while sessions (calls, transfers) are active
+ * or while the daemon reports events, and grows by the backoff factor of the policy, up to its maximum, when idle.
+ * At most one poll is waiting in the executor queue: extra poll requests are collapsed.
+ */
+public class DaemonPollPump {
+
+    private static final String TAG = DaemonPollPump.class.getSimpleName();
+
+    public static class Policy {
+        private final long mMinIntervalMs;
+        private final long mMaxIntervalMs;
+        private final int mBackoffFactor;
+
+        /**
+         * @param minIntervalMs interval used while active
+         * @param maxIntervalMs maximum interval when idle
+         * @param backoffFactor growth factor of the interval at each idle poll, 1 for a fixed interval
+         */
+        public Policy(long minIntervalMs, long maxIntervalMs, int backoffFactor) {
+            if (minIntervalMs <= 0 || maxIntervalMs < minIntervalMs || backoffFactor < 1) {
+                throw new IllegalArgumentException("Invalid polling policy " + minIntervalMs + "/" + maxIntervalMs + "/" + backoffFactor);
+            }
+            mMinIntervalMs = minIntervalMs;
+            mMaxIntervalMs = maxIntervalMs;
+            mBackoffFactor = backoffFactor;
+        }
+
+        /**
+         * @return a policy polling at a fixed interval, whatever the activity
+         */
+        public static Policy fixed(long intervalMs) {
+            return new Policy(intervalMs, intervalMs, 1);
+        }
+
+        /**
+         * @return a policy polling every activeIntervalMs when active, doubling the interval up to maxIdleIntervalMs when idle
+         */
+        public static Policy adaptive(long activeIntervalMs, long maxIdleIntervalMs) {
+            return new Policy(activeIntervalMs, maxIdleIntervalMs, 2);
+        }
+
+        public long getMinInterval() {
+            return mMinIntervalMs;
+        }
+
+        public long getMaxInterval() {
+            return mMaxIntervalMs;
+        }
+
+        public int getBackoffFactor() {
+            return mBackoffFactor;
+        }
+    }
+
+    private final ScheduledExecutorService mScheduler;
+    private final ExecutorService mExecutor;
+    private final Runnable mPoll;
+    private volatile Policy mPolicy;
+
+    private volatile boolean mRunning = false;
+    private volatile boolean mActive = false;
+    private volatile boolean mActivity = false;
+    private volatile long mInterval;
+    private final AtomicBoolean mPollPending = new AtomicBoolean(false);
+    private ScheduledFuture<?> mNextPoll;
+
+    // metrics
+    private final AtomicLong mPollCount = new AtomicLong();
+    private final AtomicLong mCollapsedCount = new AtomicLong();
+    private final AtomicLong mTotalPollDurationUs = new AtomicLong();
+    private final AtomicLong mMaxPollDurationUs = new AtomicLong();
+
+    /**
+     * @param scheduler schedules the poll requests
+     * @param executor  runs the polls, ie the daemon executor
+     * @param poll      the polling task, ie Ringservice::pollEvents
+     */
+    public DaemonPollPump(ScheduledExecutorService scheduler, ExecutorService executor, Runnable poll, Policy policy) {
+        mScheduler = scheduler;
+        mExecutor = executor;
+        mPoll = poll;
+        mPolicy = policy;
+        mInterval = policy.getMinInterval();
+    }
+
+    public void start() {
+        mRunning = true;
+        mInterval = mPolicy.getMinInterval();
+        schedule(0);
+    }
+
+    public synchronized void stop() {
+        mRunning = false;
+        if (mNextPoll != null) {
+            mNextPoll.cancel(false);
+            mNextPoll = null;
+        }
+    }
+
+    public void setPolicy(Policy policy) {
+        mPolicy = policy;
+        wakeUp();
+    }
+
+    public Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Keeps the polling at the minimum interval while active, ie during calls and transfers
+     */
+    public void setActive(boolean active) {
+        boolean wasActive = mActive;
+        mActive = active;
+        if (active && !wasActive) {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Reports an event from the daemon: the next poll will happen after the minimum interval
+     */
+    public void onActivity() {
+        mActivity = true;
+    }
+
+    /**
+     * Polls as soon as possible and resets the interval to the minimum
+     */
+    public void wakeUp() {
+        mActivity = true;
+        mInterval = mPolicy.getMinInterval();
+        schedule(0);
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (!mRunning) {
+            return;
+        }
+        if (mNextPoll != null && !mNextPoll.isDone()) {
+            long delay = mNextPoll.getDelay(TimeUnit.MILLISECONDS);
+            if (delay > 0) {
+                if (delay <= delayMs) {
+                    // an earlier poll is already scheduled
+                    return;
+                }
+                mNextPoll.cancel(false);
+            }
+            // otherwise the request is running and its poll may be over already: a duplicate request is collapsed
+        }
+        mNextPoll = mScheduler.schedule(this::requestPoll, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void requestPoll() {
+        if (!mPollPending.compareAndSet(false, true)) {
+            mCollapsedCount.incrementAndGet();
+            return;
+        }
+        mExecutor.submit(this::poll);
+    }
+
+    private void poll() {
+        long start = System.nanoTime();
+        try {
+            mPoll.run();
+        } catch (Exception e) {
+            Log.e(TAG, "Error while polling daemon events", e);
+        } finally {
+            mPollPending.set(false);
+        }
+        long durationUs = (System.nanoTime() - start) / 1000L;
+        mPollCount.incrementAndGet();
+        mTotalPollDurationUs.addAndGet(durationUs);
+        if (durationUs > mMaxPollDurationUs.get()) {
+            mMaxPollDurationUs.set(durationUs);
+        }
+
+        Policy policy = mPolicy;
+        long interval;
+        if (mActive || mActivity) {
+            interval = policy.getMinInterval();
+        } else {
+            interval = Math.min(Math.max(mInterval, policy.getMinInterval()) * policy.getBackoffFactor(), policy.getMaxInterval());
+        }
+        mActivity = false;
+        mInterval = interval;
+        schedule(interval);
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * @return the current polling interval, in milliseconds
+     */
+    public long getCurrentInterval() {
+        return mInterval;
+    }
+
+    public long getPollCount() {
+        return mPollCount.get();
+    }
+
+    /**
+     * @return the number of poll requests dropped because a poll was already waiting or running
+     */
+    public long getCollapsedPollCount() {
+        return mCollapsedCount.get();
+    }
+
+    /**
+     * @return the average duration of a poll, in microseconds
+     */
+    public long getAveragePollDuration() {
+        long count = mPollCount.get();
+        return count == 0 ? 0 : mTotalPollDurationUs.get() / count;
+    }
+
+    /**
+     * @return the longest poll, in microseconds
+     */
+    public long getMaxPollDuration() {
+        return mMaxPollDurationUs.get();
+    }
+}
@@ -19,9 +19,11 @@
  */
 package cx.ring.services;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -38,14 +40,27 @@ import cx.ring.daemon.StringMap;
 import cx.ring.daemon.StringVect;
 import cx.ring.daemon.UintVect;
 import cx.ring.daemon.VideoCallback;
+import cx.ring.model.DataTransferEventCode;
+import cx.ring.model.SipCall;
 import cx.ring.utils.Log;
 
 public class DaemonService {
 
     private static final String TAG = DaemonService.class.getSimpleName();
 
+    /**
+     * Polling interval of the fixed polling policy
+     */
     private static final int POLLING_TIMEOUT = 50;
 
+    /**
+     * Polling intervals of the adaptive polling policy: during calls and transfers, and maximum when idle.
+     * User actions wake the pump up, so only the events from the network, ie incoming calls and messages,
+     * may wait up to the idle interval.
+     */
+    private static final int POLLING_ACTIVE_INTERVAL = POLLING_TIMEOUT;
+    private static final int POLLING_IDLE_MAX_INTERVAL = 500;
+
     @Inject
     @Named("DaemonExecutor")
     ExecutorService mExecutor;
@@ -82,6 +97,11 @@ public class DaemonService {
 
     private boolean mDaemonStarted = false;
 
+    private DaemonPollPump.Policy mPollingPolicy = DaemonPollPump.Policy.adaptive(POLLING_ACTIVE_INTERVAL, POLLING_IDLE_MAX_INTERVAL);
+    private DaemonPollPump mPollPump;
+    private final Set<String> mActiveCalls = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<Long> mActiveTransfers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
     public DaemonService(SystemInfoCallbacks systemInfoCallbacks) {
         mSystemInfoCallbacks = systemInfoCallbacks;
     }
@@ -114,10 +134,69 @@ public class DaemonService {
     }
 
     private void startRingServicePolling() {
-        mScheduledExecutor.scheduleAtFixedRate(() -> mExecutor.submit(Ringservice::pollEvents), 0, POLLING_TIMEOUT, TimeUnit.MILLISECONDS);
+        mPollPump = new DaemonPollPump(mScheduledExecutor, mExecutor, Ringservice::pollEvents, mPollingPolicy);
+        mCallService.setPollPump(mPollPump);
+        mAccountService.setPollPump(mPollPump);
+        mPollPump.start();
+    }
+
+    /**
+     * Sets the daemon polling policy, ie DaemonPollPump.Policy.fixed(POLLING_TIMEOUT) to poll at a fixed rate
+     */
+    public void setPollingPolicy(DaemonPollPump.Policy policy) {
+        mPollingPolicy = policy;
+        if (mPollPump != null) {
+            mPollPump.setPolicy(policy);
+        }
+    }
+
+    public static DaemonPollPump.Policy getFixedPollingPolicy() {
+        return DaemonPollPump.Policy.fixed(POLLING_TIMEOUT);
+    }
+
+    /**
+     * @return the daemon poll pump, to read its metrics, or null if the daemon is not started
+     */
+    public DaemonPollPump getPollPump() {
+        return mPollPump;
+    }
+
+    private void onDaemonEvent() {
+        if (mPollPump != null) {
+            mPollPump.onActivity();
+        }
+    }
+
+    private void updateActiveSessions() {
+        if (mPollPump != null) {
+            mPollPump.setActive(!mActiveCalls.isEmpty() || !mActiveTransfers.isEmpty());
+        }
+    }
+
+    private void onCallState(String callId, int state) {
+        if (state == SipCall.State.HUNGUP || state == SipCall.State.BUSY || state == SipCall.State.FAILURE
+                || state == SipCall.State.INACTIVE || state == SipCall.State.OVER) {
+            mActiveCalls.remove(callId);
+        } else {
+            mActiveCalls.add(callId);
+        }
+        updateActiveSessions();
+    }
+
+    private void onTransferEvent(long transferId, int eventCode) {
+        DataTransferEventCode[] codes = DataTransferEventCode.values();
+        if (eventCode < 0 || eventCode >= codes.length || codes[eventCode].isOver()) {
+            mActiveTransfers.remove(transferId);
+        } else {
+            mActiveTransfers.add(transferId);
+        }
+        updateActiveSessions();
     }
 
     public void stopDaemon() {
+        if (mPollPump != null) {
+            mPollPump.stop();
+        }
         mScheduledExecutor.shutdown();
 
         if (mDaemonStarted) {
@@ -157,11 +236,13 @@ public class DaemonService {
 
         @Override
         public void incomingAccountMessage(String accountId, String from, StringMap messages) {
+            onDaemonEvent();
             mCallService.incomingAccountMessage(accountId, from, messages);
         }
 
         @Override
         public void accountMessageStatusChanged(String accountId, long messageId, String to, int status) {
+            onDaemonEvent();
             mHistoryService.accountMessageStatusChanged(accountId, messageId, to, status);
         }
 
@@ -235,16 +316,21 @@ public class DaemonService {
 
         @Override
         public void callStateChanged(String callId, String newState, int detailCode) {
+            onDaemonEvent();
+            onCallState(callId, SipCall.stateFromString(newState));
             mCallService.callStateChanged(callId, newState, detailCode);
         }
 
         @Override
         public void incomingCall(String accountId, String callId, String from) {
+            onDaemonEvent();
+            onCallState(callId, SipCall.State.RINGING);
             mCallService.incomingCall(accountId, callId, from);
         }
 
         @Override
         public void incomingMessage(String callId, String from, StringMap messages) {
+            onDaemonEvent();
             mCallService.incomingMessage(callId, from, messages);
         }
 
@@ -336,6 +422,8 @@ public class DaemonService {
         @Override
         public void dataTransferEvent(long transferId, int eventCode) {
             Log.d(TAG, "dataTransferEvent: transferId=" + transferId + ", eventCode=" + eventCode);
+            onDaemonEvent();
+            onTransferEvent(transferId, eventCode);
             mAccountService.dataTransferEvent(transferId, eventCode);
         }
     }
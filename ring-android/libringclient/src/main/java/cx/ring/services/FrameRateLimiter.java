@@ -0,0 +1,60 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops camera frames to keep at most a frame rate, whatever the preview frame rate range of the camera.
+ * <p>
+ * A frame is kept when it arrives at most a quarter of an interval before its due time,
+ * so that the jitter of the camera does not drop a frame in time.
+ */
+public class FrameRateLimiter {
+
+    private long mIntervalNs = 0;
+    private long mNextFrameTime = 0;
+
+    /**
+     * @param rate maximum frame rate, in frames per thousand seconds as the camera rates, 0 for no limit
+     */
+    public synchronized void setMaxFrameRate(int rate) {
+        mIntervalNs = rate > 0 ? TimeUnit.SECONDS.toNanos(1000) / rate : 0;
+        mNextFrameTime = 0;
+    }
+
+    /**
+     * @param now time of the frame, in nanoseconds
+     * @return true if the frame is kept, false if it is dropped
+     */
+    public synchronized boolean accept(long now) {
+        if (mIntervalNs == 0) {
+            return true;
+        }
+        if (mNextFrameTime != 0 && now < mNextFrameTime - mIntervalNs / 4) {
+            return false;
+        }
+        // after a gap, the next frame is due one interval after this one
+        if (mNextFrameTime == 0 || now - mNextFrameTime > mIntervalNs) {
+            mNextFrameTime = now + mIntervalNs;
+        } else {
+            mNextFrameTime += mIntervalNs;
+        }
+        return true;
+    }
+}
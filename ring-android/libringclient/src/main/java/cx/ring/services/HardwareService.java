@@ -45,6 +45,11 @@ public abstract class HardwareService extends Observable {
     @Inject
     DeviceRuntimeService mDeviceRuntimeService;
 
+    // camera frames are sent on their own thread, not to delay the daemon executor
+    private final VideoFramePipeline mFramePipeline = new VideoFramePipeline(VideoFramePipeline.DEFAULT_QUEUE_SIZE, this::sendVideoFrame);
+    private final CaptureQualityController mCaptureQuality = new CaptureQualityController();
+    private final FrameRateLimiter mFrameRateLimiter = new FrameRateLimiter();
+
     public abstract void initVideo();
 
     public abstract boolean isVideoAvailable();
@@ -101,6 +106,13 @@ public abstract class HardwareService extends Observable {
 
     public abstract boolean isPreviewFromFrontCamera();
 
+    /**
+     * Lowers the frame rate of the capture to the one of the quality level, with {@link #setMaxFrameRate}
+     *
+     * @param level 0 for the negotiated capture, up to {@link CaptureQualityController#MAX_LEVEL}
+     */
+    public abstract void setCaptureQuality(int level);
+
     public void connectivityChanged() {
         FutureUtils.executeDaemonThreadCallable(
                 mExecutor,
@@ -163,20 +175,97 @@ public abstract class HardwareService extends Observable {
         RingserviceJNI.releaseNativeWindow(inputWindow);
     }
 
+    /**
+     * Queues a camera frame for the daemon. The oldest frame is dropped if the daemon is late.
+     */
     public void setVideoFrame(final byte[] data, final int width, final int height, final int rotation) {
-        FutureUtils.executeDaemonThreadCallable(
-                mExecutor,
-                mDeviceRuntimeService.provideDaemonThreadId(),
-                false,
-                () -> {
-                    long frame = RingserviceJNI.obtainFrame(data.length);
-                    if (frame != 0) {
-                        RingserviceJNI.setVideoFrame(data, data.length, frame, width, height, rotation);
-                    }
-                    RingserviceJNI.releaseFrame(frame);
-                    return true;
-                }
-        );
+        setVideoFrame(data, width, height, rotation, null);
+    }
+
+    /**
+     * Queues a camera frame for the daemon. The oldest frame is dropped if the daemon is late,
+     * frames above the maximum frame rate are dropped right away.
+     *
+     * @param recycler called once the frame is copied or dropped, when the buffer can be reused
+     */
+    public void setVideoFrame(final byte[] data, final int width, final int height, final int rotation,
+                              VideoFramePipeline.BufferRecycler recycler) {
+        if (!mFrameRateLimiter.accept(System.nanoTime())) {
+            if (recycler != null) {
+                recycler.recycle(data);
+            }
+            return;
+        }
+        mFramePipeline.offer(data, width, height, rotation, recycler);
+    }
+
+    /**
+     * Drops the frames sent to the daemon above this rate. The capture and the parameters negotiated
+     * with the daemon are unchanged, the daemon input accepts a lower frame rate.
+     *
+     * @param rate maximum frame rate, in frames per thousand seconds as the camera rates, 0 for no limit
+     */
+    protected void setMaxFrameRate(int rate) {
+        mFrameRateLimiter.setMaxFrameRate(rate);
+    }
+
+    private void sendVideoFrame(byte[] data, int width, int height, int rotation) {
+        long frame = RingserviceJNI.obtainFrame(data.length);
+        if (frame != 0) {
+            RingserviceJNI.setVideoFrame(data, data.length, frame, width, height, rotation);
+        }
+        RingserviceJNI.releaseFrame(frame);
+    }
+
+    /**
+     * Stops sending the camera frames, ie when the capture stops
+     */
+    protected void stopVideoFrames() {
+        mFramePipeline.stop();
+    }
+
+    /**
+     * Adapts the capture to the network conditions of a call, as reported by RTCP.
+     * With several calls, ie in a conference, the capture follows the worst one.
+     *
+     * @param packetLoss lost packets, in percent
+     * @param jitter     interarrival jitter, in milliseconds
+     */
+    public void onRtcpReport(String callId, int packetLoss, int jitter) {
+        int previous = mCaptureQuality.getLevel();
+        int level = mCaptureQuality.onReport(callId, packetLoss, jitter, System.currentTimeMillis());
+        if (level != previous) {
+            Log.i(TAG, "onRtcpReport: " + callId + " packet loss " + packetLoss + "%, jitter " + jitter
+                    + " ms, capture quality level " + previous + " -> " + level);
+            setCaptureQuality(level);
+        }
+    }
+
+    /**
+     * Forgets the network conditions of the call, the capture follows the other calls
+     */
+    public void onCallEnded(String callId) {
+        int previous = mCaptureQuality.getLevel();
+        int level = mCaptureQuality.removeCall(callId);
+        if (level != previous) {
+            Log.i(TAG, "onCallEnded: " + callId + ", capture quality level " + previous + " -> " + level);
+            setCaptureQuality(level);
+        }
+    }
+
+    /**
+     * Goes back to the negotiated capture, ie when the capture stops
+     */
+    protected void resetCaptureQuality() {
+        mCaptureQuality.reset();
+        mFrameRateLimiter.setMaxFrameRate(0);
+    }
+
+    /**
+     * @return the pipeline of the camera frames, with its latency and dropped frames metrics
+     */
+    public VideoFramePipeline getFramePipeline() {
+        return mFramePipeline;
     }
 
     public void addVideoDevice(String deviceId) {
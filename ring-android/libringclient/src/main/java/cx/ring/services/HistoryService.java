@@ -20,17 +20,25 @@
 package cx.ring.services;
 
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -39,10 +47,13 @@ import cx.ring.daemon.StringMap;
 import cx.ring.model.CallContact;
 import cx.ring.model.Conference;
 import cx.ring.model.Conversation;
+import cx.ring.model.ConversationSummary;
 import cx.ring.model.HistoryCall;
 import cx.ring.model.DataTransfer;
 import cx.ring.model.HistoryEntry;
+import cx.ring.model.HistoryPage;
 import cx.ring.model.HistoryText;
+import cx.ring.model.IConversationElement;
 import cx.ring.model.ServiceEvent;
 import cx.ring.model.SipCall;
 import cx.ring.model.TextMessage;
@@ -63,10 +74,39 @@ public abstract class HistoryService extends Observable {
 
     private static final String TAG = HistoryService.class.getSimpleName();
 
+    /**
+     * Number of history rows loaded at once when paging through a conversation
+     */
+    public static final int HISTORY_PAGE_SIZE = 50;
+
+    /**
+     * Number of most recent history rows loaded at startup for a whole account
+     */
+    public static final int HISTORY_ACCOUNT_WINDOW = 500;
+
+    /**
+     * Maximum number of message ids per UPDATE statement when marking messages as read
+     */
+    private static final int READ_BATCH_SIZE = 500;
+
+    /**
+     * Write-behind queue settings: maximum number of queued writes, of writes per transaction,
+     * and maximum time a write waits to be grouped with others
+     */
+    private static final int WRITE_QUEUE_CAPACITY = 1024;
+    private static final int WRITE_BATCH_SIZE = 64;
+    private static final long WRITE_MAX_DELAY_MS = 5;
+
     @Inject
     @Named("ApplicationExecutor")
     protected ExecutorService mApplicationExecutor;
 
+    @Inject
+    @Named("HistoryExecutor")
+    protected ExecutorService mHistoryExecutor;
+
+    private HistoryWriteQueue mWriteQueue;
+
     protected abstract ConnectionSource getConnectionSource();
 
     protected abstract Dao<HistoryCall, Integer> getCallHistoryDao();
@@ -75,28 +115,87 @@ public abstract class HistoryService extends Observable {
 
     protected abstract Dao<DataTransfer, Long> getDataHistoryDao();
 
-    public boolean insertNewEntry(Conference toInsert) {
+    protected abstract Dao<ConversationSummary, String> getConversationSummaryDao();
+
+    /**
+     * @return the write-behind queue used for the history inserts coming from the daemon
+     */
+    public synchronized HistoryWriteQueue getWriteQueue() {
+        if (mWriteQueue == null) {
+            mWriteQueue = new HistoryWriteQueue(mHistoryExecutor,
+                    transaction -> TransactionManager.callInTransaction(getConnectionSource(), transaction),
+                    WRITE_QUEUE_CAPACITY, WRITE_BATCH_SIZE, WRITE_MAX_DELAY_MS);
+        }
+        return mWriteQueue;
+    }
 
-        for (SipCall call : toInsert.getParticipants()) {
+    private void awaitPendingWrites() {
+        HistoryWriteQueue writeQueue;
+        synchronized (this) {
+            writeQueue = mWriteQueue;
+        }
+        if (writeQueue != null) {
+            writeQueue.awaitPendingWrites();
+        }
+    }
+
+    private static List<HistoryCall> toHistoryCalls(Conference conference) {
+        List<HistoryCall> calls = new ArrayList<>(conference.getParticipants().size());
+        for (SipCall call : conference.getParticipants()) {
             call.setTimestampEnd(System.currentTimeMillis());
+            calls.add(new HistoryCall(call));
+        }
+        return calls;
+    }
 
-            HistoryCall persistent = new HistoryCall(call);
-            try {
-                Log.d(TAG, "HistoryDao().create() " + persistent.getNumber() + " " + persistent.getStartDate().toString() + " " + persistent.getEndDate());
-                getCallHistoryDao().create(persistent);
-            } catch (SQLException e) {
-                Log.e(TAG, "Error while inserting text conference entry", e);
-                return false;
-            }
+    public boolean insertNewEntry(Conference toInsert) {
+        List<HistoryCall> calls = toHistoryCalls(toInsert);
+        try {
+            TransactionManager.callInTransaction(getConnectionSource(), () -> {
+                createHistoryCalls(calls);
+                return null;
+            });
+        } catch (SQLException e) {
+            Log.e(TAG, "Error while inserting text conference entry", e);
+            return false;
         }
 
         return true;
     }
 
+    /**
+     * Same as {@link #insertNewEntry(Conference)}, but the calls are written by the write-behind queue.
+     * The participants are copied before returning, so the conference can be modified right away.
+     *
+     * @return the number of inserted calls, once committed
+     */
+    public Future<Integer> queueNewEntry(Conference toInsert) {
+        List<HistoryCall> calls = toHistoryCalls(toInsert);
+        return getWriteQueue().enqueue(() -> {
+            createHistoryCalls(calls);
+            return calls.size();
+        });
+    }
+
+    private void createHistoryCalls(List<HistoryCall> calls) throws SQLException {
+        for (HistoryCall persistent : calls) {
+            Log.d(TAG, "HistoryDao().create() " + persistent.getNumber() + " " + persistent.getStartDate().toString() + " " + persistent.getEndDate());
+            getCallHistoryDao().create(persistent);
+
+            ConversationSummary summary = getConversationSummary(persistent.getAccountID(), persistent.getNumber());
+            if (persistent.call_end >= summary.getLastInteractionTime()) {
+                summary.setLastCall(persistent.call_end, persistent.isIncoming(), persistent.getDuration());
+                getConversationSummaryDao().createOrUpdate(summary);
+            }
+        }
+    }
+
     private boolean insertNewTextMessage(HistoryText txt) {
         try {
-            Log.d(TAG, "HistoryDao().create() id:" + txt.id + " acc:" + txt.getAccountID() + " num:" + txt.getNumber() + " date:" + txt.getDate() + " msg:" + txt.getMessage());
-            getTextHistoryDao().create(txt);
+            TransactionManager.callInTransaction(getConnectionSource(), () -> {
+                createTextMessage(txt);
+                return null;
+            });
         } catch (SQLException e) {
             Log.e(TAG, "Error while inserting text message", e);
             return false;
@@ -105,6 +204,20 @@ public abstract class HistoryService extends Observable {
         return true;
     }
 
+    private void createTextMessage(HistoryText txt) throws SQLException {
+        Log.d(TAG, "HistoryDao().create() id:" + txt.id + " acc:" + txt.getAccountID() + " num:" + txt.getNumber() + " date:" + txt.getDate() + " msg:" + txt.getMessage());
+        getTextHistoryDao().create(txt);
+
+        ConversationSummary summary = getConversationSummary(txt.getAccountID(), txt.getNumber());
+        if (txt.getDate() >= summary.getLastInteractionTime()) {
+            summary.setLastText(txt.getDate(), txt.isIncoming(), txt.getMessage());
+        }
+        if (!txt.isRead()) {
+            summary.setUnreadCount(summary.getUnreadCount() + 1);
+        }
+        getConversationSummaryDao().createOrUpdate(summary);
+    }
+
     public boolean insertNewTextMessage(TextMessage txt) {
         HistoryText historyTxt = new HistoryText(txt);
         if (!insertNewTextMessage(historyTxt)) {
@@ -115,26 +228,53 @@ public abstract class HistoryService extends Observable {
         return true;
     }
 
-    public boolean updateTextMessage(HistoryText txt) {
-        try {
+    /**
+     * Same as {@link #insertNewTextMessage(TextMessage)}, but the message is written by the write-behind queue.
+     * The message id is generated by the client, so it is set on the message before returning.
+     *
+     * @return the message id, once committed
+     */
+    public Future<Long> queueNewTextMessage(TextMessage txt) {
+        HistoryText historyTxt = new HistoryText(txt);
+        txt.setID(historyTxt.id);
+        return getWriteQueue().enqueue(() -> {
+            createTextMessage(historyTxt);
+            return historyTxt.id;
+        });
+    }
+
+    /**
+     * Updates the message with the write-behind queue, after its insert if it is still queued.
+     * The observers are notified once the update is committed.
+     *
+     * @return true once committed
+     */
+    public Future<Boolean> updateTextMessage(HistoryText txt) {
+        return getWriteQueue().enqueue(() -> {
             Log.d(TAG, "HistoryDao().update() id:" + txt.id + " acc:" + txt.getAccountID() + " num:"
                     + txt.getNumber() + " date:" + txt.getDate() + " msg:" + txt.getMessage() + " status:" + txt.getStatus());
+            HistoryText previous = getTextHistoryDao().queryForId(txt.id);
             getTextHistoryDao().update(txt);
-        } catch (SQLException e) {
-            Log.e(TAG, "Error while updating text message", e);
-            return false;
-        }
-
-        // notify the observers
-        setChanged();
-        notifyObservers();
 
-        return true;
+            if (previous != null && previous.isRead() != txt.isRead()) {
+                ConversationSummary summary = getConversationSummary(txt.getAccountID(), txt.getNumber());
+                summary.setUnreadCount(Math.max(0, summary.getUnreadCount() + (txt.isRead() ? -1 : 1)));
+                getConversationSummaryDao().createOrUpdate(summary);
+            }
+            return true;
+        }, updated -> {
+            // notify the observers
+            setChanged();
+            notifyObservers();
+        });
     }
 
     public boolean insertDataTransfer(DataTransfer dataTransfer) {
         try {
-            getDataHistoryDao().create(dataTransfer);
+            TransactionManager.callInTransaction(getConnectionSource(), () -> {
+                createDataTransfer(dataTransfer);
+                return null;
+            });
         } catch (SQLException e) {
             Log.e(TAG, "Error while inserting data transfer", e);
             return false;
@@ -143,29 +283,71 @@ public abstract class HistoryService extends Observable {
         return true;
     }
 
-    public boolean updateDataTransfer(DataTransfer dataTransfer) {
-        try {
-            getDataHistoryDao().update(dataTransfer);
-        } catch (SQLException e) {
-            Log.e(TAG, "Error while updating data transfer", e);
-            return false;
+    /**
+     * Same as {@link #insertDataTransfer(DataTransfer)}, but the transfer is written by the write-behind queue.
+     * The database id is set on the transfer when the write is committed.
+     *
+     * @return the database id of the transfer, once committed
+     */
+    public Future<Long> queueDataTransfer(DataTransfer dataTransfer) {
+        return getWriteQueue().enqueue(() -> {
+            createDataTransfer(dataTransfer);
+            return dataTransfer.getId();
+        });
+    }
+
+    private void createDataTransfer(DataTransfer dataTransfer) throws SQLException {
+        getDataHistoryDao().create(dataTransfer);
+
+        String number = new Uri(dataTransfer.getPeerId()).getRawUriString();
+        ConversationSummary summary = getConversationSummary(dataTransfer.getAccountId(), number);
+        if (dataTransfer.getTimestamp() >= summary.getLastInteractionTime()) {
+            summary.setLastFile(dataTransfer.getTimestamp(), !dataTransfer.isOutgoing(), dataTransfer.getDisplayName());
+            getConversationSummaryDao().createOrUpdate(summary);
         }
+    }
 
-        return true;
+    /**
+     * Updates the transfer with the write-behind queue, after its insert if it is still queued
+     *
+     * @return the number of updated rows, once committed
+     */
+    public Future<Integer> updateDataTransfer(DataTransfer dataTransfer) {
+        return getWriteQueue().enqueue(() -> getDataHistoryDao().update(dataTransfer));
     }
 
+    /**
+     * Loads the most recent window of the account history and broadcasts it in an HISTORY_LOADED event,
+     * with the summaries of all the conversations of the account, including the ones older than the window.
+     * The last page of the conversations with unread messages older than the window is loaded as well.
+     * Older rows are loaded on demand with {@link #getHistoryPageForAccountAndContactRingId}.
+     */
     public void getCallAndTextAsyncForAccount(final String accountId) {
 
         mApplicationExecutor.submit(() -> {
             try {
-                List<HistoryCall> historyCalls = getAllForAccount(accountId);
-                List<HistoryText> historyTexts = getAllTextMessagesForAccount(accountId);
-                List<DataTransfer> historyTransfers = getHistoryDataTransfers(accountId);
+                HistoryPage page = getHistoryPage(accountId, null, Long.MAX_VALUE, HISTORY_ACCOUNT_WINDOW);
+                List<HistoryCall> calls = page.getCalls();
+                List<HistoryText> texts = page.getTexts();
+                List<DataTransfer> transfers = page.getTransfers();
+                ArrayList<ConversationSummary> summaries = new ArrayList<>(getConversationSummaryDao()
+                        .queryForEq(ConversationSummary.COLUMN_ACCOUNT_ID_NAME, accountId));
+                if (page.hasMore()) {
+                    for (ConversationSummary summary : summaries) {
+                        if (summary.getUnreadCount() > 0 && summary.getLastInteractionTime() < page.getOldestTimestamp()) {
+                            HistoryPage conversationPage = getHistoryPage(accountId, new Uri(summary.getNumber()), Long.MAX_VALUE, HISTORY_PAGE_SIZE);
+                            calls.addAll(conversationPage.getCalls());
+                            texts.addAll(conversationPage.getTexts());
+                            transfers.addAll(conversationPage.getTransfers());
+                        }
+                    }
+                }
 
                 ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.HISTORY_LOADED);
-                event.addEventInput(ServiceEvent.EventInput.HISTORY_CALLS, historyCalls);
-                event.addEventInput(ServiceEvent.EventInput.HISTORY_TEXTS, historyTexts);
-                event.addEventInput(ServiceEvent.EventInput.HISTORY_TRANSFERS, historyTransfers);
+                event.addEventInput(ServiceEvent.EventInput.HISTORY_CALLS, calls);
+                event.addEventInput(ServiceEvent.EventInput.HISTORY_TEXTS, texts);
+                event.addEventInput(ServiceEvent.EventInput.HISTORY_TRANSFERS, transfers);
+                event.addEventInput(ServiceEvent.EventInput.HISTORY_SUMMARIES, summaries);
                 setChanged();
                 notifyObservers(event);
             } catch (SQLException e) {
@@ -174,18 +356,186 @@ public abstract class HistoryService extends Observable {
         });
     }
 
-    private List<HistoryCall> getAllForAccount(String accountId) throws SQLException {
-        QueryBuilder<HistoryCall, Integer> queryBuilder = getCallHistoryDao().queryBuilder();
-        queryBuilder.where().eq(HistoryText.COLUMN_ACCOUNT_ID_NAME, accountId);
-        queryBuilder.orderBy(HistoryCall.COLUMN_TIMESTAMP_START_NAME, true);
-        return getCallHistoryDao().query(queryBuilder.prepare());
+    /**
+     * @param before   only rows strictly older than this timestamp are returned, Long.MAX_VALUE for the most recent page
+     * @param pageSize maximum number of rows of the page
+     * @return a page of the account history, all contacts included
+     */
+    public Single<HistoryPage> getHistoryPageForAccount(final String accountId, final long before, final int pageSize) {
+        return Single.fromCallable(() -> getHistoryPage(accountId, null, before, pageSize));
     }
 
-    private List<HistoryText> getAllTextMessagesForAccount(String accountId) throws SQLException {
-        QueryBuilder<HistoryText, Long> queryBuilder = getTextHistoryDao().queryBuilder();
-        queryBuilder.where().eq(HistoryText.COLUMN_ACCOUNT_ID_NAME, accountId);
-        queryBuilder.orderBy(HistoryText.COLUMN_TIMESTAMP_NAME, true);
-        return getTextHistoryDao().query(queryBuilder.prepare());
+    /**
+     * @param before   only rows strictly older than this timestamp are returned, Long.MAX_VALUE for the most recent page
+     * @param pageSize maximum number of rows of the page
+     * @return a page of the history between the account and the contact
+     */
+    public Single<HistoryPage> getHistoryPageForAccountAndContactRingId(final String accountId, final Uri contactRingId, final long before, final int pageSize) {
+        return Single.fromCallable(() -> getHistoryPage(accountId, contactRingId, before, pageSize));
+    }
+
+    /**
+     * A history table queried by timestamp
+     */
+    interface HistoryTable<T> {
+        /**
+         * @return the limit most recent rows strictly older than the timestamp, newest first
+         */
+        List<T> queryBefore(long before, long limit) throws SQLException;
+
+        /**
+         * @return all the rows at the timestamp
+         */
+        List<T> queryAt(long timestamp) throws SQLException;
+
+        long getTimestamp(T row);
+    }
+
+    /**
+     * History rows of an account, or of an account and a peer, in a table
+     */
+    private static abstract class DaoHistoryTable<T, ID> implements HistoryTable<T> {
+        private final Dao<T, ID> mDao;
+        private final String mAccountColumn;
+        private final String mAccountId;
+        private final String mPeerColumn;
+        private final String mPeer;
+        private final String mTimestampColumn;
+
+        DaoHistoryTable(Dao<T, ID> dao, String accountColumn, String accountId, String peerColumn, String peer, String timestampColumn) {
+            mDao = dao;
+            mAccountColumn = accountColumn;
+            mAccountId = accountId;
+            mPeerColumn = peerColumn;
+            mPeer = peer;
+            mTimestampColumn = timestampColumn;
+        }
+
+        private Where<T, ID> where(QueryBuilder<T, ID> queryBuilder) throws SQLException {
+            Where<T, ID> where = queryBuilder.where().eq(mAccountColumn, mAccountId);
+            if (mPeer != null) {
+                where.and().eq(mPeerColumn, mPeer);
+            }
+            return where;
+        }
+
+        @Override
+        public List<T> queryBefore(long before, long limit) throws SQLException {
+            QueryBuilder<T, ID> queryBuilder = mDao.queryBuilder();
+            where(queryBuilder).and().lt(mTimestampColumn, before);
+            queryBuilder.orderBy(mTimestampColumn, false);
+            queryBuilder.limit(limit);
+            return mDao.query(queryBuilder.prepare());
+        }
+
+        @Override
+        public List<T> queryAt(long timestamp) throws SQLException {
+            QueryBuilder<T, ID> queryBuilder = mDao.queryBuilder();
+            where(queryBuilder).and().eq(mTimestampColumn, timestamp);
+            return mDao.query(queryBuilder.prepare());
+        }
+    }
+
+    private HistoryPage getHistoryPage(String accountId, Uri contactRingId, long before, int pageSize) throws SQLException {
+        String number = contactRingId == null ? null : contactRingId.getRawUriString();
+        String peerId = contactRingId == null ? null : contactRingId.getRawRingId();
+
+        HistoryTable<HistoryCall> calls = new DaoHistoryTable<HistoryCall, Integer>(getCallHistoryDao(),
+                HistoryCall.COLUMN_ACCOUNT_ID_NAME, accountId, HistoryCall.COLUMN_NUMBER_NAME, number, HistoryCall.COLUMN_TIMESTAMP_START_NAME) {
+            @Override
+            public long getTimestamp(HistoryCall call) {
+                return call.getDate();
+            }
+        };
+        HistoryTable<HistoryText> texts = new DaoHistoryTable<HistoryText, Long>(getTextHistoryDao(),
+                HistoryText.COLUMN_ACCOUNT_ID_NAME, accountId, HistoryText.COLUMN_NUMBER_NAME, number, HistoryText.COLUMN_TIMESTAMP_NAME) {
+            @Override
+            public long getTimestamp(HistoryText text) {
+                return text.getDate();
+            }
+        };
+        HistoryTable<DataTransfer> transfers = new DaoHistoryTable<DataTransfer, Long>(getDataHistoryDao(),
+                DataTransfer.COLUMN_ACCOUNT_ID_NAME, accountId, DataTransfer.COLUMN_PEER_ID_NAME, peerId, DataTransfer.COLUMN_TIMESTAMP_NAME) {
+            @Override
+            public long getTimestamp(DataTransfer transfer) {
+                return transfer.getTimestamp();
+            }
+        };
+        return getHistoryPage(calls, texts, transfers, before, pageSize);
+    }
+
+    /**
+     * Keyset pagination over the three history tables, using the timestamp indexes.
+     * Each table is queried for its pageSize most recent rows older than the cursor, then the rows
+     * are trimmed so that the page holds about the pageSize most recent rows overall.
+     * The next page uses a strict cursor, so the page holds all the rows at its oldest timestamp:
+     * a table at its limit on that timestamp may have more rows at it, they are queried as well.
+     */
+    static HistoryPage getHistoryPage(HistoryTable<HistoryCall> callTable, HistoryTable<HistoryText> textTable,
+                                      HistoryTable<DataTransfer> transferTable, long before, int pageSize) throws SQLException {
+        List<HistoryCall> calls = callTable.queryBefore(before, pageSize);
+        List<HistoryText> texts = textTable.queryBefore(before, pageSize);
+        List<DataTransfer> transfers = transferTable.queryBefore(before, pageSize);
+
+        int total = calls.size() + texts.size() + transfers.size();
+        boolean hasMore = calls.size() == pageSize || texts.size() == pageSize || transfers.size() == pageSize;
+        if (total == 0) {
+            return new HistoryPage(calls, texts, transfers, before, false);
+        }
+
+        long[] timestamps = new long[total];
+        int i = 0;
+        for (HistoryCall call : calls) {
+            timestamps[i++] = callTable.getTimestamp(call);
+        }
+        for (HistoryText text : texts) {
+            timestamps[i++] = textTable.getTimestamp(text);
+        }
+        for (DataTransfer transfer : transfers) {
+            timestamps[i++] = transferTable.getTimestamp(transfer);
+        }
+        Arrays.sort(timestamps);
+        long oldest = timestamps[Math.max(0, total - pageSize)];
+
+        hasMore |= trimOlderRows(calls, callTable, oldest);
+        hasMore |= trimOlderRows(texts, textTable, oldest);
+        hasMore |= trimOlderRows(transfers, transferTable, oldest);
+        addRowsAt(calls, callTable, oldest, pageSize);
+        addRowsAt(texts, textTable, oldest, pageSize);
+        addRowsAt(transfers, transferTable, oldest, pageSize);
+        Collections.reverse(calls);
+        Collections.reverse(texts);
+        Collections.reverse(transfers);
+
+        return new HistoryPage(calls, texts, transfers, oldest, hasMore);
+    }
+
+    /**
+     * Lists are sorted newest first: removes the rows older than the page from their tail
+     *
+     * @return true if rows were removed
+     */
+    private static <T> boolean trimOlderRows(List<T> rows, HistoryTable<T> table, long oldest) {
+        boolean trimmed = false;
+        while (!rows.isEmpty() && table.getTimestamp(rows.get(rows.size() - 1)) < oldest) {
+            rows.remove(rows.size() - 1);
+            trimmed = true;
+        }
+        return trimmed;
+    }
+
+    /**
+     * Replaces the rows at the oldest timestamp of the page by all the rows of the table at this timestamp,
+     * if the table query stopped at its limit on this timestamp
+     */
+    private static <T> void addRowsAt(List<T> rows, HistoryTable<T> table, long oldest, int pageSize) throws SQLException {
+        if (rows.size() != pageSize || table.getTimestamp(rows.get(rows.size() - 1)) != oldest) {
+            return;
+        }
+        while (!rows.isEmpty() && table.getTimestamp(rows.get(rows.size() - 1)) == oldest) {
+            rows.remove(rows.size() - 1);
+        }
+        rows.addAll(table.queryAt(oldest));
     }
 
     public Single<List<HistoryText>> getLastMessagesForAccountAndContactRingId(final String accountId, final String contactRingId) {
@@ -208,6 +558,67 @@ public abstract class HistoryService extends Observable {
         });
     }
 
+    /**
+     * Rebuilds the conversation_summary table from the history tables, with one row per account and peer.
+     * The bare columns of an aggregate query with a single max() are taken by SQLite from the row holding the maximum.
+     */
+    public static final String CONVERSATION_SUMMARY_REBUILD_QUERY = "INSERT INTO `" + ConversationSummary.TABLE_NAME + "` (`"
+            + ConversationSummary.COLUMN_ID_NAME + "`, `" + ConversationSummary.COLUMN_ACCOUNT_ID_NAME + "`, `" + ConversationSummary.COLUMN_NUMBER_NAME + "`, `"
+            + ConversationSummary.COLUMN_LAST_INTERACTION_TIME_NAME + "`, `" + ConversationSummary.COLUMN_LAST_TYPE_NAME + "`, `"
+            + ConversationSummary.COLUMN_LAST_INCOMING_NAME + "`, `" + ConversationSummary.COLUMN_LAST_MESSAGE_NAME + "`, `"
+            + ConversationSummary.COLUMN_LAST_CALL_DURATION_NAME + "`, `" + ConversationSummary.COLUMN_UNREAD_COUNT_NAME + "`) "
+            + "SELECT `account` || '/' || `peer`, `account`, `peer`, MAX(`time`), `kind`, `incoming`, `content`, `duration`, SUM(`unread`) FROM ("
+            + "SELECT `" + HistoryText.COLUMN_ACCOUNT_ID_NAME + "` AS `account`, `" + HistoryText.COLUMN_NUMBER_NAME + "` AS `peer`, `"
+            + HistoryText.COLUMN_TIMESTAMP_NAME + "` AS `time`, '" + IConversationElement.CEType.TEXT + "' AS `kind`, (`"
+            + HistoryText.COLUMN_DIRECTION_NAME + "` = " + TextMessage.direction.INCOMING + ") AS `incoming`, `"
+            + HistoryText.COLUMN_MESSAGE_NAME + "` AS `content`, 0 AS `duration`, (`" + HistoryText.COLUMN_READ_NAME + "` = 0) AS `unread` "
+            + "FROM `" + HistoryText.TABLE_NAME + "` "
+            + "UNION ALL "
+            + "SELECT `" + HistoryCall.COLUMN_ACCOUNT_ID_NAME + "`, `" + HistoryCall.COLUMN_NUMBER_NAME + "`, `" + HistoryCall.COLUMN_TIMESTAMP_END_NAME + "`, '"
+            + IConversationElement.CEType.CALL + "', (`" + HistoryCall.COLUMN_DIRECTION_NAME + "` = " + SipCall.Direction.INCOMING + "), NULL, `"
+            + HistoryCall.COLUMN_TIMESTAMP_END_NAME + "` - `" + HistoryCall.COLUMN_TIMESTAMP_START_NAME + "`, 0 "
+            + "FROM `" + HistoryCall.TABLE_NAME + "` "
+            + "UNION ALL "
+            + "SELECT `" + DataTransfer.COLUMN_ACCOUNT_ID_NAME + "`, '" + Uri.RING_URI_SCHEME + "' || `" + DataTransfer.COLUMN_PEER_ID_NAME + "`, `"
+            + DataTransfer.COLUMN_TIMESTAMP_NAME + "`, '" + IConversationElement.CEType.FILE + "', (`" + DataTransfer.COLUMN_IS_OUTGOING_NAME + "` = 0), `"
+            + DataTransfer.COLUMN_DISPLAY_NAME_NAME + "`, 0, 0 "
+            + "FROM `" + DataTransfer.TABLE_NAME + "`"
+            + ") GROUP BY `account`, `peer`";
+
+    /**
+     * @return the summary of every conversation of the account, keyed by peer number
+     */
+    public Single<Map<String, ConversationSummary>> getConversationSummariesForAccount(final String accountId) {
+        return Single.fromCallable(() -> {
+            List<ConversationSummary> results = getConversationSummaryDao().queryForEq(ConversationSummary.COLUMN_ACCOUNT_ID_NAME, accountId);
+            Map<String, ConversationSummary> summaries = new HashMap<>(results.size());
+            for (ConversationSummary summary : results) {
+                summaries.put(summary.getNumber(), summary);
+            }
+            return summaries;
+        });
+    }
+
+    /**
+     * Recomputes all the conversation summaries from the history tables, ie for databases created before the summary table
+     */
+    public void rebuildConversationSummaries() {
+        try {
+            TransactionManager.callInTransaction(getConnectionSource(), () -> {
+                TableUtils.clearTable(getConnectionSource(), ConversationSummary.class);
+                getConversationSummaryDao().executeRaw(CONVERSATION_SUMMARY_REBUILD_QUERY);
+                return null;
+            });
+        } catch (SQLException e) {
+            Log.e(TAG, "Error while rebuilding conversation summaries", e);
+        }
+    }
+
+    private ConversationSummary getConversationSummary(String accountId, String number) throws SQLException {
+        ConversationSummary summary = getConversationSummaryDao().queryForId(ConversationSummary.getId(accountId, number));
+        return summary != null ? summary : new ConversationSummary(accountId, number);
+    }
+
     public Single<List<HistoryText>> getAllTextMessagesForAccountAndContactRingId(final String accountId, final String contactRingId) {
         return Single.fromCallable(() -> getHistoryTexts(accountId, contactRingId));
     }
@@ -256,21 +667,26 @@ public abstract class HistoryService extends Observable {
 
     public Completable clearHistoryForContactAndAccount(final String contactId, final String accoundId) {
         return Completable.fromAction(() -> {
-
-            DeleteBuilder<HistoryText, Long> deleteTextHistoryBuilder = getTextHistoryDao()
-                    .deleteBuilder();
-            deleteTextHistoryBuilder.where().eq(HistoryText.COLUMN_ACCOUNT_ID_NAME, accoundId).and().eq(HistoryText.COLUMN_NUMBER_NAME, contactId);
-            deleteTextHistoryBuilder.delete();
-
-            DeleteBuilder<HistoryCall, Integer> deleteCallsHistoryBuilder = getCallHistoryDao()
-                    .deleteBuilder();
-            deleteCallsHistoryBuilder.where().eq(HistoryCall.COLUMN_ACCOUNT_ID_NAME, accoundId).and().eq(HistoryCall.COLUMN_NUMBER_NAME, contactId);
-            deleteCallsHistoryBuilder.delete();
-
-            DeleteBuilder<DataTransfer, Long> deleteDataTransferHistoryBuilder = getDataHistoryDao()
-                    .deleteBuilder();
-            deleteDataTransferHistoryBuilder.where().eq(DataTransfer.COLUMN_ACCOUNT_ID_NAME, accoundId).and().eq(DataTransfer.COLUMN_PEER_ID_NAME, contactId);
-            deleteDataTransferHistoryBuilder.delete();
+            awaitPendingWrites();
+            TransactionManager.callInTransaction(getConnectionSource(), () -> {
+                DeleteBuilder<HistoryText, Long> deleteTextHistoryBuilder = getTextHistoryDao()
+                        .deleteBuilder();
+                deleteTextHistoryBuilder.where().eq(HistoryText.COLUMN_ACCOUNT_ID_NAME, accoundId).and().eq(HistoryText.COLUMN_NUMBER_NAME, contactId);
+                deleteTextHistoryBuilder.delete();
+
+                DeleteBuilder<HistoryCall, Integer> deleteCallsHistoryBuilder = getCallHistoryDao()
+                        .deleteBuilder();
+                deleteCallsHistoryBuilder.where().eq(HistoryCall.COLUMN_ACCOUNT_ID_NAME, accoundId).and().eq(HistoryCall.COLUMN_NUMBER_NAME, contactId);
+                deleteCallsHistoryBuilder.delete();
+
+                DeleteBuilder<DataTransfer, Long> deleteDataTransferHistoryBuilder = getDataHistoryDao()
+                        .deleteBuilder();
+                deleteDataTransferHistoryBuilder.where().eq(DataTransfer.COLUMN_ACCOUNT_ID_NAME, accoundId).and().eq(DataTransfer.COLUMN_PEER_ID_NAME, contactId);
+                deleteDataTransferHistoryBuilder.delete();
+
+                getConversationSummaryDao().deleteById(ConversationSummary.getId(accoundId, contactId));
+                return null;
+            });
         });
     }
 
@@ -278,7 +694,11 @@ public abstract class HistoryService extends Observable {
         return getTextHistoryDao().queryForId(id);
     }
 
+    /**
+     * Marks the unread messages of the conversation as read, the database is updated by the write-behind queue.
+     */
     public void readMessages(Conversation conversation) {
+        List<TextMessage> unread = new ArrayList<>();
         for (HistoryEntry h : conversation.getRawHistory().values()) {
             NavigableMap<Long, TextMessage> messages = h.getTextMessages();
             for (TextMessage message : messages.descendingMap().values()) {
@@ -286,10 +706,54 @@ public abstract class HistoryService extends Observable {
                     break;
                 }
                 message.read();
-                HistoryText ht = new HistoryText(message);
-                updateTextMessage(ht);
+                unread.add(message);
             }
         }
+        if (unread.isEmpty()) {
+            return;
+        }
+
+        getWriteQueue().enqueue(() -> {
+            setMessagesRead(unread);
+            return true;
+        }, updated -> {
+            // notify the observers
+            setChanged();
+            notifyObservers();
+        });
+    }
+
+    /**
+     * Marks the messages as read in the database, from the write-behind queue transaction.
+     * The unread count of the related conversation summaries is updated accordingly.
+     *
+     * @param messages the messages to mark as read
+     */
+    private void setMessagesRead(final Collection<TextMessage> messages) throws SQLException {
+        List<Long> ids = new ArrayList<>(messages.size());
+        Map<String, TextMessage> conversations = new HashMap<>();
+        for (TextMessage message : messages) {
+            ids.add(message.getId());
+            conversations.put(ConversationSummary.getId(message.getAccount(), message.getNumber()), message);
+        }
+
+        for (int i = 0; i < ids.size(); i += READ_BATCH_SIZE) {
+            UpdateBuilder<HistoryText, Long> updateBuilder = getTextHistoryDao().updateBuilder();
+            updateBuilder.updateColumnValue(HistoryText.COLUMN_READ_NAME, true);
+            updateBuilder.where().in(HistoryText.COLUMN_ID_NAME, ids.subList(i, Math.min(ids.size(), i + READ_BATCH_SIZE)));
+            updateBuilder.update();
+        }
+
+        for (TextMessage message : conversations.values()) {
+            long unreadCount = getTextHistoryDao().queryBuilder().where()
+                    .eq(HistoryText.COLUMN_ACCOUNT_ID_NAME, message.getAccount())
+                    .and().eq(HistoryText.COLUMN_NUMBER_NAME, message.getNumber())
+                    .and().eq(HistoryText.COLUMN_READ_NAME, false)
+                    .countOf();
+            ConversationSummary summary = getConversationSummary(message.getAccount(), message.getNumber());
+            summary.setUnreadCount((int) unreadCount);
+            getConversationSummaryDao().createOrUpdate(summary);
+        }
     }
 
     /**
@@ -304,6 +768,7 @@ public abstract class HistoryService extends Observable {
         }
 
         mApplicationExecutor.submit(() -> {
+            awaitPendingWrites();
             try {
                 Map<String, HistoryEntry> history = conversation.getRawHistory();
                 for (Map.Entry<String, HistoryEntry> entry : history.entrySet()) {
@@ -336,6 +801,13 @@ public abstract class HistoryService extends Observable {
                             .deleteBuilder();
                     deleteDataTransfersHistoryBuilder.where().in(DataTransfer.COLUMN_ID_NAME, dataTransferIds);
                     deleteDataTransfersHistoryBuilder.delete();
+
+                    //~ Deleting the conversation summary
+                    DeleteBuilder<ConversationSummary, String> deleteSummaryBuilder = getConversationSummaryDao()
+                            .deleteBuilder();
+                    deleteSummaryBuilder.where().eq(ConversationSummary.COLUMN_ACCOUNT_ID_NAME, entry.getKey())
+                            .and().in(ConversationSummary.COLUMN_NUMBER_NAME, conversation.getContact().getIds());
+                    deleteSummaryBuilder.delete();
                 }
 
                 // notify the observers
@@ -350,10 +822,12 @@ public abstract class HistoryService extends Observable {
     }
 
     public void clearHistory() {
+        awaitPendingWrites();
         try {
             TableUtils.clearTable(getConnectionSource(), HistoryCall.class);
             TableUtils.clearTable(getConnectionSource(), HistoryText.class);
             TableUtils.clearTable(getConnectionSource(), DataTransfer.class);
+            TableUtils.clearTable(getConnectionSource(), ConversationSummary.class);
 
             // notify the observers
             setChanged();
@@ -380,7 +854,7 @@ public abstract class HistoryService extends Observable {
 
         TextMessage txt = new TextMessage(true, msg, new Uri(from), callId, accountId);
         Log.w(TAG, "New text messsage " + txt.getAccount() + " " + txt.getCallId() + " " + txt.getMessage());
-        insertNewTextMessage(txt);
+        queueNewTextMessage(txt);
 
         ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.INCOMING_MESSAGE);
         event.addEventInput(ServiceEvent.EventInput.MESSAGE, txt);
@@ -388,34 +862,39 @@ public abstract class HistoryService extends Observable {
         notifyObservers(event);
     }
 
+    /**
+     * Updates the status of the message with the write-behind queue, after its insert if it is still queued.
+     * The observers are notified once the status is committed, in the order of the status changes.
+     */
     public void accountMessageStatusChanged(String accountId, long messageId, String to, int status) {
-        TextMessage textMessage;
-        HistoryText historyText;
-        try {
-            historyText = getTextMessage(messageId);
-        } catch (SQLException e) {
-            Log.e(TAG, "accountMessageStatusChanged: a sql error occurred while getting message with id=" + messageId, e);
-            return;
-        }
-
-        if (historyText == null) {
-            Log.e(TAG, "accountMessageStatusChanged: not able to find message with id " + messageId + " in database");
-            return;
-        }
+        getWriteQueue().enqueue(() -> {
+            HistoryText historyText = getTextMessage(messageId);
+            if (historyText == null) {
+                Log.e(TAG, "accountMessageStatusChanged: not able to find message with id " + messageId + " in database");
+                return null;
+            }
 
-        textMessage = new TextMessage(historyText);
-        if (!textMessage.getAccount().equals(accountId)) {
-            Log.e(TAG, "accountMessageStatusChanged: received an invalid text message");
-            return;
-        }
+            TextMessage textMessage = new TextMessage(historyText);
+            if (!textMessage.getAccount().equals(accountId)) {
+                Log.e(TAG, "accountMessageStatusChanged: received an invalid text message");
+                return null;
+            }
 
-        textMessage.setStatus(status);
-        updateTextMessage(new HistoryText(textMessage));
+            textMessage.setStatus(status);
+            getTextHistoryDao().update(new HistoryText(textMessage));
+            return textMessage;
+        }, textMessage -> {
+            if (textMessage == null) {
+                return;
+            }
+            setChanged();
+            notifyObservers();
 
-        ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.ACCOUNT_MESSAGE_STATUS_CHANGED);
-        event.addEventInput(ServiceEvent.EventInput.MESSAGE, textMessage);
-        setChanged();
-        notifyObservers(event);
+            ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.ACCOUNT_MESSAGE_STATUS_CHANGED);
+            event.addEventInput(ServiceEvent.EventInput.MESSAGE, textMessage);
+            setChanged();
+            notifyObservers(event);
+        });
     }
 
     public boolean hasAnHistory(String accountId, String contactRingId) {
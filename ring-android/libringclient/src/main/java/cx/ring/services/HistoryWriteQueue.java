@@ -0,0 +1,324 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cx.ring.utils.Log;
+
+/**
+ * Write-behind queue for the history database.
+ * Writes are queued by the caller thread (ie the daemon thread) and committed by a single writer thread,
+ * grouped in one transaction every maxDelayMs milliseconds or every maxBatchSize writes.
+ * The result of each write (ie the id of the inserted row) is available through the returned Future.
+ * Writes are committed in their queue order, so that an update queued after an insert finds the inserted row.
+ */
+public class HistoryWriteQueue {
+
+    private static final String TAG = HistoryWriteQueue.class.getSimpleName();
+
+    /**
+     * Runs a group of writes in a single database transaction
+     */
+    public interface TransactionRunner {
+        void callInTransaction(Callable<Void> transaction) throws Exception;
+    }
+
+    /**
+     * Called on the writer thread once a write is committed, outside of the transaction.
+     * Not called if the write fails.
+     */
+    public interface CommitListener<T> {
+        void onCommitted(T result);
+    }
+
+    private final BlockingQueue<PendingWrite<?>> mQueue;
+    private final TransactionRunner mTransactionRunner;
+    private final ExecutorService mExecutor;
+    private final int mMaxBatchSize;
+    private final long mMaxDelayMs;
+
+    private boolean mStarted = false;
+    private final AtomicInteger mPending = new AtomicInteger();
+
+    // metrics
+    private final AtomicLong mCommitCount = new AtomicLong();
+    private final AtomicLong mCommittedWrites = new AtomicLong();
+    private final AtomicLong mFailedWrites = new AtomicLong();
+    private final AtomicLong mTotalCommitLatencyUs = new AtomicLong();
+    private final AtomicLong mLastCommitLatencyUs = new AtomicLong();
+    private final AtomicLong mMaxQueueLatencyUs = new AtomicLong();
+
+    /**
+     * @param executor     executor dedicated to the writer loop
+     * @param capacity     maximum number of queued writes, enqueue blocks when reached
+     * @param maxBatchSize maximum number of writes per transaction
+     * @param maxDelayMs   maximum time a write waits for other writes to be grouped with
+     */
+    public HistoryWriteQueue(ExecutorService executor, TransactionRunner transactionRunner, int capacity, int maxBatchSize, long maxDelayMs) {
+        mExecutor = executor;
+        mTransactionRunner = transactionRunner;
+        mQueue = new ArrayBlockingQueue<>(capacity);
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    public <T> Future<T> enqueue(Callable<T> write) {
+        return enqueue(write, null);
+    }
+
+    /**
+     * Queues the write without waiting for it, unless the queue is full: the caller thread (ie the daemon thread)
+     * then blocks until the writer makes room, rather than running the write out of order.
+     *
+     * @param listener notified once the write is committed, ie to notify observers in the order of the writes, or null
+     */
+    public <T> Future<T> enqueue(Callable<T> write, CommitListener<T> listener) {
+        PendingWrite<T> pendingWrite = new PendingWrite<>(write, listener);
+        start();
+        mPending.incrementAndGet();
+        try {
+            if (!mQueue.offer(pendingWrite)) {
+                Log.w(TAG, "enqueue: queue full, waiting for the writer");
+                mQueue.put(pendingWrite);
+            }
+        } catch (InterruptedException e) {
+            mPending.decrementAndGet();
+            Thread.currentThread().interrupt();
+            pendingWrite.fail(e);
+        }
+        return pendingWrite;
+    }
+
+    /**
+     * Blocks until all the writes queued before this call are committed.
+     * Must not be called from the writer thread.
+     */
+    public void awaitPendingWrites() {
+        if (mPending.get() == 0) {
+            return;
+        }
+        try {
+            enqueue(() -> null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error while waiting for pending history writes", e);
+        }
+    }
+
+    private synchronized void start() {
+        if (!mStarted) {
+            mStarted = true;
+            mExecutor.submit(this::writerLoop);
+        }
+    }
+
+    private void writerLoop() {
+        List<PendingWrite<?>> batch = new ArrayList<>(mMaxBatchSize);
+        while (true) {
+            try {
+                batch.add(mQueue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mMaxDelayMs);
+                while (batch.size() < mMaxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite<?> next = remaining > 0 ? mQueue.poll(remaining, TimeUnit.NANOSECONDS) : mQueue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "writerLoop: interrupted, " + mQueue.size() + " writes left in queue");
+                return;
+            }
+            commit(batch);
+            mPending.addAndGet(-batch.size());
+            batch.clear();
+        }
+    }
+
+    private void commit(final List<PendingWrite<?>> batch) {
+        long start = System.nanoTime();
+        try {
+            mTransactionRunner.callInTransaction(() -> {
+                for (PendingWrite<?> write : batch) {
+                    write.call();
+                }
+                return null;
+            });
+            for (PendingWrite<?> write : batch) {
+                write.complete();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error while committing " + batch.size() + " history writes, retrying them one by one", e);
+            // the transaction has been rolled back: do not lose the whole group because of a single bad write
+            for (PendingWrite<?> write : batch) {
+                try {
+                    mTransactionRunner.callInTransaction(() -> {
+                        write.call();
+                        return null;
+                    });
+                    write.complete();
+                } catch (Exception writeError) {
+                    Log.e(TAG, "Error while committing a history write", writeError);
+                    mFailedWrites.incrementAndGet();
+                    write.fail(writeError);
+                }
+            }
+        }
+
+        long now = System.nanoTime();
+        long latencyUs = (now - start) / 1000L;
+        mCommitCount.incrementAndGet();
+        mCommittedWrites.addAndGet(batch.size());
+        mLastCommitLatencyUs.set(latencyUs);
+        mTotalCommitLatencyUs.addAndGet(latencyUs);
+        long queueLatencyUs = (now - batch.get(0).mEnqueueTime) / 1000L;
+        if (queueLatencyUs > mMaxQueueLatencyUs.get()) {
+            mMaxQueueLatencyUs.set(queueLatencyUs);
+        }
+    }
+
+    /**
+     * @return the number of writes waiting to be committed
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return the number of transactions committed by the writer
+     */
+    public long getCommitCount() {
+        return mCommitCount.get();
+    }
+
+    public long getCommittedWrites() {
+        return mCommittedWrites.get();
+    }
+
+    public long getFailedWrites() {
+        return mFailedWrites.get();
+    }
+
+    /**
+     * @return the duration of the last transaction, in microseconds
+     */
+    public long getLastCommitLatency() {
+        return mLastCommitLatencyUs.get();
+    }
+
+    /**
+     * @return the average duration of a transaction, in microseconds
+     */
+    public long getAverageCommitLatency() {
+        long count = mCommitCount.get();
+        return count == 0 ? 0 : mTotalCommitLatencyUs.get() / count;
+    }
+
+    /**
+     * @return the longest time a write waited between enqueue and commit, in microseconds
+     */
+    public long getMaxQueueLatency() {
+        return mMaxQueueLatencyUs.get();
+    }
+
+    private static class PendingWrite<T> implements Future<T> {
+        private final Callable<T> mWrite;
+        private final CommitListener<T> mListener;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final long mEnqueueTime = System.nanoTime();
+        private T mResult;
+        private Exception mError;
+
+        PendingWrite(Callable<T> write, CommitListener<T> listener) {
+            mWrite = write;
+            mListener = listener;
+        }
+
+        void call() throws Exception {
+            mResult = mWrite.call();
+        }
+
+        void complete() {
+            mDone.countDown();
+            if (mListener != null) {
+                try {
+                    mListener.onCommitted(mResult);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error while notifying a history write", e);
+                }
+            }
+        }
+
+        void fail(Exception error) {
+            mResult = null;
+            mError = error;
+            mDone.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            mDone.await();
+            return getResult();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!mDone.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        private T getResult() throws ExecutionException {
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mResult;
+        }
+    }
+}
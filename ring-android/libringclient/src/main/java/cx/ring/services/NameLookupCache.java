@@ -0,0 +1,398 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import cx.ring.utils.Log;
+
+/**
+ * Caches the name server resolutions (address to registered name) of each account.
+ * <p>
+ * - resolutions are persisted in a file, read on the scheduler by {@link #load()},
+ * and expire after a TTL, shorter for invalid or unregistered addresses
+ * - a lookup of an address already being resolved for the account is not sent again
+ * - lookups are queued and sent to the name server at a bounded rate
+ */
+public class NameLookupCache {
+
+    private static final String TAG = NameLookupCache.class.getSimpleName();
+
+    /**
+     * Registered name found
+     */
+    public static final int STATE_FOUND = 0;
+    /**
+     * Invalid address
+     */
+    public static final int STATE_INVALID = 1;
+    /**
+     * Address not registered
+     */
+    public static final int STATE_NOT_FOUND = 2;
+
+    private static final int FILE_VERSION = 1;
+
+    public static final long FOUND_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    public static final long NOT_FOUND_TTL_MS = TimeUnit.DAYS.toMillis(1);
+    // a lookup without answer after this delay can be sent again
+    public static final long LOOKUP_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    public static final int MAX_QUEUE_SIZE = 4096;
+    public static final long DRAIN_PERIOD_MS = 100;
+    public static final int LOOKUPS_PER_PERIOD = 4;
+    private static final long SAVE_DELAY_MS = 2000;
+    private static final long QUEUED = Long.MAX_VALUE;
+
+    public interface Resolver {
+        /**
+         * Sends the lookup to the name server, the result is expected in {@link #onLookupResult}
+         */
+        void lookupAddress(String accountId, String nameserver, String address);
+    }
+
+    public static class Resolution {
+        private final int mState;
+        private final String mName;
+        private final long mTimestamp;
+
+        Resolution(int state, String name, long timestamp) {
+            mState = state;
+            mName = name;
+            mTimestamp = timestamp;
+        }
+
+        public int getState() {
+            return mState;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        boolean isExpired(long now) {
+            long ttl = mState == STATE_FOUND ? FOUND_TTL_MS : NOT_FOUND_TTL_MS;
+            return now - mTimestamp > ttl;
+        }
+    }
+
+    private static class Lookup {
+        final String accountId;
+        final String nameserver;
+        final String address;
+
+        Lookup(String accountId, String nameserver, String address) {
+            this.accountId = accountId;
+            this.nameserver = nameserver;
+            this.address = address;
+        }
+    }
+
+    private final ScheduledExecutorService mScheduler;
+    private final File mFile;
+    private final Resolver mResolver;
+
+    private final Map<String, Resolution> mResolutions = new HashMap<>();
+    // lookup key -> time at which the lookup was sent, QUEUED while waiting in the queue
+    private final Map<String, Long> mInFlight = new HashMap<>();
+    private final ArrayDeque<Lookup> mQueue = new ArrayDeque<>();
+    // accounts cleared before the file was read, their saved resolutions are ignored
+    private final Set<String> mClearedAccounts = new HashSet<>();
+    private boolean mLoaded = false;
+    private ScheduledFuture<?> mDrain;
+    // start of the last drain, in milliseconds
+    private long mLastDrainTime = 0;
+    private ScheduledFuture<?> mSave;
+
+    // metrics
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mDuplicateCount = 0;
+    private long mDroppedCount = 0;
+    private long mSentCount = 0;
+
+    /**
+     * @param scheduler drains the lookup queue and saves the cache
+     * @param file      persistent storage of the cache, or null to keep it in memory
+     * @param resolver  sends the lookups to the name server
+     */
+    public NameLookupCache(ScheduledExecutorService scheduler, File file, Resolver resolver) {
+        mScheduler = scheduler;
+        mFile = file;
+        mResolver = resolver;
+    }
+
+    private static String key(String accountId, String address) {
+        return accountId + '/' + address;
+    }
+
+    /**
+     * @return the valid cached resolution of the address, or null
+     */
+    public synchronized Resolution get(String accountId, String address) {
+        Resolution resolution = mResolutions.get(key(accountId, address));
+        if (resolution != null && resolution.isExpired(System.currentTimeMillis())) {
+            mResolutions.remove(key(accountId, address));
+            return null;
+        }
+        return resolution;
+    }
+
+    /**
+     * Resolves the address: returns the cached resolution if any,
+     * or queues a lookup unless one is already in flight for this account and address.
+     *
+     * @return the cached resolution, or null if the result will be reported by {@link #onLookupResult}
+     */
+    public synchronized Resolution lookupAddress(String accountId, String nameserver, String address) {
+        Resolution resolution = get(accountId, address);
+        if (resolution != null) {
+            mHitCount++;
+            return resolution;
+        }
+        mMissCount++;
+
+        String key = key(accountId, address);
+        long now = System.currentTimeMillis();
+        Long pending = mInFlight.get(key);
+        if (pending != null && now - pending < LOOKUP_TIMEOUT_MS) {
+            mDuplicateCount++;
+            return null;
+        }
+        if (mQueue.size() >= MAX_QUEUE_SIZE) {
+            Log.w(TAG, "lookupAddress: queue full, dropping lookup of " + address);
+            mDroppedCount++;
+            return null;
+        }
+        mInFlight.put(key, QUEUED);
+        mQueue.add(new Lookup(accountId, nameserver, address));
+        scheduleDrain();
+        return null;
+    }
+
+    /**
+     * Stores the result of a lookup, as reported by the daemon
+     */
+    public synchronized void onLookupResult(String accountId, int state, String address, String name) {
+        if (address == null || address.isEmpty()) {
+            return;
+        }
+        String key = key(accountId, address);
+        mInFlight.remove(key);
+        if (state != STATE_FOUND && state != STATE_INVALID && state != STATE_NOT_FOUND) {
+            // network or server error: not cached
+            return;
+        }
+        mResolutions.put(key, new Resolution(state, name, System.currentTimeMillis()));
+        scheduleSave();
+    }
+
+    /**
+     * Forgets the resolutions of an account, ie when it is removed
+     */
+    public synchronized void clear(String accountId) {
+        if (!mLoaded) {
+            mClearedAccounts.add(accountId);
+        }
+        String prefix = accountId + '/';
+        Iterator<String> it = mResolutions.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+        scheduleSave();
+    }
+
+    private void scheduleDrain() {
+        if (mDrain == null || mDrain.isDone()) {
+            // a drain stopped on an empty queue does not reset the rate
+            long delay = Math.max(0, mLastDrainTime + DRAIN_PERIOD_MS - System.currentTimeMillis());
+            mDrain = mScheduler.scheduleAtFixedRate(this::drain, delay, DRAIN_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        synchronized (this) {
+            mLastDrainTime = System.currentTimeMillis();
+        }
+        int sent = 0;
+        while (sent < LOOKUPS_PER_PERIOD) {
+            Lookup lookup;
+            synchronized (this) {
+                lookup = mQueue.poll();
+                if (lookup == null) {
+                    mDrain.cancel(false);
+                    return;
+                }
+                mInFlight.put(key(lookup.accountId, lookup.address), System.currentTimeMillis());
+                mSentCount++;
+            }
+            try {
+                mResolver.lookupAddress(lookup.accountId, lookup.nameserver, lookup.address);
+            } catch (Exception e) {
+                Log.e(TAG, "Error while looking up " + lookup.address, e);
+                synchronized (this) {
+                    mInFlight.remove(key(lookup.accountId, lookup.address));
+                }
+            }
+            sent++;
+        }
+    }
+
+    private void scheduleSave() {
+        if (mFile != null && (mSave == null || mSave.isDone())) {
+            mSave = mScheduler.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads the saved resolutions on the scheduler, lookups are resolved by the name server until then
+     */
+    public void load() {
+        mScheduler.execute(this::readFile);
+    }
+
+    private void readFile() {
+        Map<String, Resolution> resolutions = new HashMap<>();
+        if (mFile != null && mFile.exists()) {
+            long now = System.currentTimeMillis();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+                if (in.readInt() != FILE_VERSION) {
+                    Log.w(TAG, "load: unsupported cache version, ignoring " + mFile);
+                } else {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String key = in.readUTF();
+                        int state = in.readInt();
+                        String name = in.readUTF();
+                        long timestamp = in.readLong();
+                        Resolution resolution = new Resolution(state, name, timestamp);
+                        if (!resolution.isExpired(now)) {
+                            resolutions.put(key, resolution);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error while loading the name cache", e);
+                resolutions.clear();
+            }
+        }
+
+        synchronized (this) {
+            // the resolutions received in the meantime are more recent
+            for (Map.Entry<String, Resolution> entry : resolutions.entrySet()) {
+                String key = entry.getKey();
+                String accountId = key.substring(0, key.indexOf('/'));
+                if (!mResolutions.containsKey(key) && !mClearedAccounts.contains(accountId)) {
+                    mResolutions.put(key, entry.getValue());
+                }
+            }
+            mClearedAccounts.clear();
+            mLoaded = true;
+            Log.d(TAG, "load: " + resolutions.size() + " resolutions loaded");
+        }
+    }
+
+    private synchronized void save() {
+        if (!mLoaded) {
+            // do not overwrite the saved resolutions before they are read
+            mSave = mScheduler.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        long now = System.currentTimeMillis();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            Iterator<Resolution> it = mResolutions.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                }
+            }
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mResolutions.size());
+            for (Map.Entry<String, Resolution> entry : mResolutions.entrySet()) {
+                Resolution resolution = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(resolution.mState);
+                out.writeUTF(resolution.mName == null ? "" : resolution.mName);
+                out.writeLong(resolution.mTimestamp);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error while saving the name cache", e);
+            return;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.e(TAG, "Error while saving the name cache: can't rename " + tmp);
+        }
+    }
+
+    public synchronized int size() {
+        return mResolutions.size();
+    }
+
+    public synchronized int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of lookups not sent because the same lookup was in flight
+     */
+    public synchronized long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * @return the number of lookups dropped because the queue was full
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized long getSentCount() {
+        return mSentCount;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import cx.ring.utils.Log;
+
+/**
+ * Name lookups of the search and registration fields, on the shared scheduler.
+ * <p>
+ * - each field has a {@link Session}: a new text cancels the lookup still waiting in the session
+ * - the debounce delay follows the typing speed of the field
+ * - invalid names and recently resolved names are answered without querying the name server
+ * - a name already being looked up for the account is not sent again
+ */
+public class NameLookupPipeline {
+
+    private static final String TAG = NameLookupPipeline.class.getSimpleName();
+
+    public static final long MIN_DEBOUNCE_MS = 150;
+    public static final long MAX_DEBOUNCE_MS = 500;
+    public static final long FOUND_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+    // a name found available may be registered by someone else
+    public static final long NOT_FOUND_TTL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long LOOKUP_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final int MAX_CACHED_NAMES = 256;
+
+    // names accepted by the name directory
+    private static final Pattern VALID_NAME = Pattern.compile("[a-zA-Z0-9_\\-]{3,32}");
+
+    public interface Resolver {
+        /**
+         * Sends the lookup to the name server
+         */
+        void lookupName(String accountId, String nameserver, String name);
+
+        /**
+         * Reports a result known without querying the name server, like the daemon does
+         */
+        void onResult(String accountId, int state, String address, String name);
+    }
+
+    private static class Result {
+        final int state;
+        final String address;
+        final long timestamp;
+
+        Result(int state, String address, long timestamp) {
+            this.state = state;
+            this.address = address;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Lookups of a search field
+     */
+    public class Session {
+        private final String mAccountId;
+        private ScheduledFuture<?> mPending;
+        private long mLastInput = 0;
+        private long mTypingInterval = MAX_DEBOUNCE_MS;
+
+        private Session(String accountId) {
+            mAccountId = accountId;
+        }
+
+        /**
+         * Looks up the name once the user stops typing, superseding the previous lookup of the session
+         */
+        public void lookup(final String name) {
+            synchronized (NameLookupPipeline.this) {
+                long now = System.currentTimeMillis();
+                if (mLastInput != 0) {
+                    // moving average of the interval between the inputs
+                    mTypingInterval = (mTypingInterval + Math.min(now - mLastInput, MAX_DEBOUNCE_MS)) / 2;
+                }
+                mLastInput = now;
+                cancelPending();
+                long delay = Math.max(MIN_DEBOUNCE_MS, Math.min(2 * mTypingInterval, MAX_DEBOUNCE_MS));
+                mPending = mScheduler.schedule(() -> send(this, name), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Cancels the lookup waiting in the session, ie when the field is closed
+         */
+        public void cancel() {
+            synchronized (NameLookupPipeline.this) {
+                cancelPending();
+            }
+        }
+
+        private void cancelPending() {
+            if (mPending != null && mPending.cancel(false)) {
+                mCanceledCount++;
+            }
+            mPending = null;
+        }
+    }
+
+    private final ScheduledExecutorService mScheduler;
+    private final Resolver mResolver;
+
+    private final Map<String, Result> mResults = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > MAX_CACHED_NAMES;
+        }
+    };
+    // lookup key -> time at which the lookup was sent
+    private final Map<String, Long> mInFlight = new HashMap<>();
+
+    // metrics
+    private long mSentCount = 0;
+    private long mCachedCount = 0;
+    private long mInvalidCount = 0;
+    private long mDuplicateCount = 0;
+    private long mCanceledCount = 0;
+    private long mResultCount = 0;
+    private long mTotalLatencyMs = 0;
+    private long mMaxLatencyMs = 0;
+
+    public NameLookupPipeline(ScheduledExecutorService scheduler, Resolver resolver) {
+        mScheduler = scheduler;
+        mResolver = resolver;
+    }
+
+    public Session newSession(String accountId) {
+        return new Session(accountId);
+    }
+
+    private static String key(String accountId, String name) {
+        return accountId + '/' + name;
+    }
+
+    private void send(Session session, String name) {
+        String accountId = session.mAccountId;
+        String key = key(accountId, name);
+        Result result = null;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (!VALID_NAME.matcher(name).matches()) {
+                mInvalidCount++;
+                result = new Result(NameLookupCache.STATE_INVALID, "", now);
+            } else {
+                Result cached = mResults.get(key);
+                if (cached != null && now - cached.timestamp < getTtl(cached.state)) {
+                    mCachedCount++;
+                    result = cached;
+                } else {
+                    Long sent = mInFlight.get(key);
+                    if (sent != null && now - sent < LOOKUP_TIMEOUT_MS) {
+                        mDuplicateCount++;
+                        return;
+                    }
+                    mInFlight.put(key, now);
+                    mSentCount++;
+                }
+            }
+        }
+        try {
+            if (result != null) {
+                mResolver.onResult(accountId, result.state, result.address, name);
+            } else {
+                mResolver.lookupName(accountId, "", name);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error while looking up " + name, e);
+            synchronized (this) {
+                mInFlight.remove(key);
+            }
+        }
+    }
+
+    private static long getTtl(int state) {
+        return state == NameLookupCache.STATE_FOUND ? FOUND_TTL_MS : NOT_FOUND_TTL_MS;
+    }
+
+    /**
+     * Stores the result of a lookup, as reported by the daemon
+     */
+    public synchronized void onLookupResult(String accountId, int state, String address, String name) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        String key = key(accountId, name);
+        long now = System.currentTimeMillis();
+        Long sent = mInFlight.remove(key);
+        if (sent != null) {
+            long latency = now - sent;
+            mResultCount++;
+            mTotalLatencyMs += latency;
+            mMaxLatencyMs = Math.max(mMaxLatencyMs, latency);
+        }
+        if (state == NameLookupCache.STATE_FOUND || state == NameLookupCache.STATE_NOT_FOUND) {
+            mResults.put(key, new Result(state, address, now));
+        }
+    }
+
+    /**
+     * @return the number of lookups sent to the name server
+     */
+    public synchronized long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * @return the number of lookups answered with a recent result
+     */
+    public synchronized long getCachedCount() {
+        return mCachedCount;
+    }
+
+    /**
+     * @return the number of lookups of invalid names, answered without querying the name server
+     */
+    public synchronized long getInvalidCount() {
+        return mInvalidCount;
+    }
+
+    /**
+     * @return the number of lookups not sent because the same lookup was in flight
+     */
+    public synchronized long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * @return the number of lookups superseded by a new input before being sent
+     */
+    public synchronized long getCanceledCount() {
+        return mCanceledCount;
+    }
+
+    /**
+     * @return the average time between the lookup and its result, in milliseconds
+     */
+    public synchronized long getAverageLatency() {
+        return mResultCount == 0 ? 0 : mTotalLatencyMs / mResultCount;
+    }
+
+    /**
+     * @return the longest time between a lookup and its result, in milliseconds
+     */
+    public synchronized long getMaxLatency() {
+        return mMaxLatencyMs;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preview buffers of a camera capture.
+ * <p>
+ * A buffer filled by the camera is given back to the camera only once its frame is copied by the daemon or dropped,
+ * so that the camera never overwrites a frame being copied.
+ * The number of buffers follows the frames in flight: the measured frame rate times the time a buffer is away from the camera,
+ * plus the buffer being filled and a spare one.
+ */
+public class PreviewBufferPool implements VideoFramePipeline.BufferRecycler {
+
+    public static final int MIN_BUFFERS = 3;
+    public static final int MAX_BUFFERS = 8;
+    private static final int SPARE_BUFFERS = 2;
+    // weight of the last measure in the moving averages
+    private static final double SMOOTHING = 0.1;
+    // minimum time between two changes of the number of buffers, not to reallocate buffers on each fluctuation
+    private static final long RESIZE_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
+    public interface BufferSink {
+        /**
+         * Gives the buffer to the camera, ie with Camera.addCallbackBuffer
+         */
+        void addBuffer(byte[] buffer);
+    }
+
+    private final int mBufferSize;
+    private final BufferSink mSink;
+    // buffers filled by the camera and time at which their frame was received, without allocation per frame
+    private final byte[][] mFilled = new byte[MAX_BUFFERS + 1][];
+    private final long[] mFilledTimes = new long[MAX_BUFFERS + 1];
+    private int mBufferCount = 0;
+    private double mFrameIntervalNs;
+    private double mHoldTimeNs;
+    private long mLastFrameTime = 0;
+    private long mLastResizeTime = 0;
+    private boolean mClosed = false;
+
+    /**
+     * @param bufferSize size of a preview frame, in bytes
+     * @param frameRate  expected frame rate, in frames per second
+     */
+    public PreviewBufferPool(int bufferSize, int frameRate, BufferSink sink) {
+        mBufferSize = bufferSize;
+        mSink = sink;
+        mFrameIntervalNs = TimeUnit.SECONDS.toNanos(1) / (double) (frameRate > 0 ? frameRate : 30);
+        // until measured, a frame is expected to be copied before the next one
+        mHoldTimeNs = mFrameIntervalNs;
+    }
+
+    /**
+     * Gives the initial buffers to the camera
+     */
+    public synchronized void start() {
+        grow(getTargetCount());
+    }
+
+    /**
+     * Stops giving buffers to the camera, ie before releasing it
+     */
+    public synchronized void close() {
+        mClosed = true;
+        Arrays.fill(mFilled, null);
+    }
+
+    /**
+     * Called when the camera delivers a frame in the buffer
+     */
+    public void onFrame(byte[] buffer) {
+        onFrame(buffer, System.nanoTime());
+    }
+
+    synchronized void onFrame(byte[] buffer, long now) {
+        if (mLastFrameTime != 0) {
+            mFrameIntervalNs += SMOOTHING * ((now - mLastFrameTime) - mFrameIntervalNs);
+        } else {
+            mLastResizeTime = now;
+        }
+        mLastFrameTime = now;
+        int slot = indexOf(null);
+        if (slot >= 0) {
+            mFilled[slot] = buffer;
+            mFilledTimes[slot] = now;
+        }
+    }
+
+    private int indexOf(byte[] buffer) {
+        for (int i = 0; i < mFilled.length; i++) {
+            if (mFilled[i] == buffer) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Called once the frame of the buffer is copied or dropped: gives the buffer back to the camera,
+     * and adds or removes buffers to follow the frames in flight.
+     */
+    @Override
+    public void recycle(byte[] buffer) {
+        recycle(buffer, System.nanoTime());
+    }
+
+    synchronized void recycle(byte[] buffer, long now) {
+        int slot = buffer == null ? -1 : indexOf(buffer);
+        if (slot < 0 || mClosed) {
+            return;
+        }
+        mFilled[slot] = null;
+        mHoldTimeNs += SMOOTHING * ((now - mFilledTimes[slot]) - mHoldTimeNs);
+        if (now - mLastResizeTime < RESIZE_INTERVAL_NS) {
+            mSink.addBuffer(buffer);
+            return;
+        }
+        int target = getTargetCount();
+        // one buffer of margin before shrinking, not to oscillate around the target
+        if (mBufferCount > target + 1) {
+            mBufferCount--;
+            mLastResizeTime = now;
+            return;
+        }
+        mSink.addBuffer(buffer);
+        if (mBufferCount < target) {
+            grow(target);
+            mLastResizeTime = now;
+        }
+    }
+
+    private void grow(int target) {
+        while (!mClosed && mBufferCount < target) {
+            mBufferCount++;
+            mSink.addBuffer(new byte[mBufferSize]);
+        }
+    }
+
+    /**
+     * @return the number of buffers for the frames in flight
+     */
+    public synchronized int getTargetCount() {
+        int inFlight = (int) Math.ceil(mHoldTimeNs / mFrameIntervalNs);
+        return Math.max(MIN_BUFFERS, Math.min(MAX_BUFFERS, inFlight + SPARE_BUFFERS));
+    }
+
+    /**
+     * @return the number of buffers allocated for the camera
+     */
+    public synchronized int getBufferCount() {
+        return mBufferCount;
+    }
+
+    /**
+     * @return the measured frame rate, in frames per second
+     */
+    public synchronized double getFrameRate() {
+        return TimeUnit.SECONDS.toNanos(1) / mFrameIntervalNs;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cx.ring.utils.Log;
+
+/**
+ * Camera frames sent to the daemon on a dedicated thread, instead of the daemon executor shared with the signaling.
+ * <p>
+ * Frames wait in a short queue: when the sender falls behind, the oldest frame is dropped,
+ * so that the encoder always gets the most recent frame instead of late ones.
+ * The buffer of a frame is handed back to its {@link BufferRecycler} once the frame is sent or dropped.
+ * The frame holders are reused: queuing a frame does not allocate.
+ */
+public class VideoFramePipeline {
+
+    private static final String TAG = VideoFramePipeline.class.getSimpleName();
+
+    // two frames: about 66 ms at 30 fps
+    public static final int DEFAULT_QUEUE_SIZE = 2;
+
+    public interface FrameSender {
+        /**
+         * Sends the frame to the daemon, called on the pipeline thread
+         */
+        void sendFrame(byte[] data, int width, int height, int rotation);
+    }
+
+    public interface BufferRecycler {
+        /**
+         * Called once the frame data is not used anymore, ie to give the buffer back to the camera
+         */
+        void recycle(byte[] data);
+    }
+
+    private static class Frame {
+        byte[] data;
+        int width;
+        int height;
+        int rotation;
+        BufferRecycler recycler;
+        long enqueueTime;
+
+        void set(byte[] data, int width, int height, int rotation, BufferRecycler recycler, long enqueueTime) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.recycler = recycler;
+            this.enqueueTime = enqueueTime;
+        }
+
+        void recycle() {
+            if (recycler != null) {
+                try {
+                    recycler.recycle(data);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error while recycling a frame buffer", e);
+                }
+            }
+            data = null;
+            recycler = null;
+        }
+    }
+
+    private final ArrayBlockingQueue<Frame> mQueue;
+    // holders of the frames done: queued frames, the frame being sent and the frame being queued
+    private final ArrayBlockingQueue<Frame> mFreeFrames;
+    private final FrameSender mSender;
+    private Thread mThread = null;
+
+    // metrics
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mTotalLatencyNs = new AtomicLong();
+    private final AtomicLong mMaxLatencyNs = new AtomicLong();
+
+    public VideoFramePipeline(int queueSize, FrameSender sender) {
+        mQueue = new ArrayBlockingQueue<>(queueSize);
+        mFreeFrames = new ArrayBlockingQueue<>(queueSize + 2);
+        mSender = sender;
+    }
+
+    /**
+     * Queues the frame, dropping the oldest queued frame if the queue is full. Starts the pipeline thread if needed.
+     *
+     * @param recycler called once the data is not used anymore, or null
+     */
+    public void offer(byte[] data, int width, int height, int rotation, BufferRecycler recycler) {
+        start();
+        Frame frame = mFreeFrames.poll();
+        if (frame == null) {
+            frame = new Frame();
+        }
+        frame.set(data, width, height, rotation, recycler, System.nanoTime());
+        while (!mQueue.offer(frame)) {
+            Frame dropped = mQueue.poll();
+            if (dropped != null) {
+                mDroppedCount.incrementAndGet();
+                release(dropped);
+            }
+        }
+    }
+
+    private void release(Frame frame) {
+        frame.recycle();
+        mFreeFrames.offer(frame);
+    }
+
+    private synchronized void start() {
+        if (mThread == null) {
+            mThread = new Thread(this::run, "VideoFramePipeline");
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stops the pipeline thread and drops the queued frames, ie when the capture stops
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        Frame dropped;
+        while ((dropped = mQueue.poll()) != null) {
+            mDroppedCount.incrementAndGet();
+            release(dropped);
+        }
+        Log.i(TAG, "stop: " + getSentCount() + " frames sent, " + getDroppedCount() + " dropped, average latency "
+                + TimeUnit.NANOSECONDS.toMicros(getAverageLatencyNs()) + " us, max "
+                + TimeUnit.NANOSECONDS.toMicros(getMaxLatencyNs()) + " us");
+    }
+
+    private void run() {
+        Thread thread = Thread.currentThread();
+        while (!thread.isInterrupted()) {
+            Frame frame;
+            try {
+                frame = mQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            long enqueueTime = frame.enqueueTime;
+            try {
+                mSender.sendFrame(frame.data, frame.width, frame.height, frame.rotation);
+            } catch (Exception e) {
+                Log.e(TAG, "Error while sending a frame", e);
+                continue;
+            } finally {
+                release(frame);
+            }
+            long latency = System.nanoTime() - enqueueTime;
+            mSentCount.incrementAndGet();
+            mTotalLatencyNs.addAndGet(latency);
+            long max = mMaxLatencyNs.get();
+            while (latency > max && !mMaxLatencyNs.compareAndSet(max, latency)) {
+                max = mMaxLatencyNs.get();
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames sent to the daemon
+     */
+    public long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * @return the number of frames dropped because newer frames were queued
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * @return the average time from the queuing of a frame to the end of its native copy, in nanoseconds
+     */
+    public long getAverageLatencyNs() {
+        long count = mSentCount.get();
+        return count == 0 ? 0 : mTotalLatencyNs.get() / count;
+    }
+
+    /**
+     * @return the maximum time from the queuing of a frame to the end of its native copy, in nanoseconds
+     */
+    public long getMaxLatencyNs() {
+        return mMaxLatencyNs.get();
+    }
+
+    public void resetMetrics() {
+        mSentCount.set(0);
+        mDroppedCount.set(0);
+        mTotalLatencyNs.set(0);
+        mMaxLatencyNs.set(0);
+    }
+}
@@ -21,16 +21,15 @@ package cx.ring.smartlist;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.inject.Inject;
 
 import cx.ring.model.Account;
 import cx.ring.model.CallContact;
+import cx.ring.model.ConversationSummary;
 import cx.ring.model.HistoryCall;
-import cx.ring.model.HistoryText;
+import cx.ring.model.IConversationElement;
 import cx.ring.model.Phone;
 import cx.ring.model.RingError;
 import cx.ring.model.ServiceEvent;
@@ -53,8 +52,9 @@ import cx.ring.utils.Observer;
 import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.observers.DisposableCompletableObserver;
-import io.reactivex.observers.DisposableObserver;
+import io.reactivex.observers.DisposableSingleObserver;
 import io.reactivex.schedulers.Schedulers;
 
 public class SmartListPresenter extends RootPresenter<SmartListView> implements Observer<ServiceEvent> {
@@ -74,7 +74,10 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
     private NameLookupInputHandler mNameLookupInputHandler;
     private String mLastBlockchainQuery = null;
 
-    private ArrayList<SmartListViewModel> mSmartListViewModels;
+    private SortedSmartList mSmartList = new SortedSmartList();
+    private Disposable mFilterDisposable;
+    private boolean mSmartListLoaded = false;
+    private String mQuery = "";
 
     private CallContact mCallContact;
 
@@ -99,6 +102,9 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
     public void unbindView() {
         super.unbindView();
         mAccountService.removeObserver(this);
+        if (mNameLookupInputHandler != null) {
+            mNameLookupInputHandler.cancel();
+        }
         mHistoryService.removeObserver(this);
         mPresenceService.removeObserver(this);
         mContactService.removeObserver(this);
@@ -139,6 +145,7 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
     }
 
     public void queryTextChanged(String query) {
+        mQuery = query;
         if (query.equals("")) {
             getView().hideSearchRow();
             getView().setLoading(false);
@@ -172,7 +179,7 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
             }
         }
 
-        getView().updateList(filter(mSmartListViewModels, query));
+        updateFilteredList();
     }
 
     public void newContactClicked() {
@@ -278,113 +285,141 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
     }
 
     private void loadHistory() {
-        mSmartListViewModels = new ArrayList<>(mContactService.getContactsDaemon().size());
         final String accountId = mAccountService.getCurrentAccount().getAccountID();
 
         Collection<CallContact> callContacts = mAccountService.getCurrentAccount().getContacts().values();
 
-        //Get all non-ban contact and then get last message and last call to create a smartList entry
-        mCompositeDisposable.add(io.reactivex.Observable.fromIterable(callContacts)
-                .filter(callContact -> !callContact.isBanned())
-                .flatMap(callContact -> {
-                    final String ringId = callContact.getPhones().get(0).getNumber().toString();
-
-                    return mHistoryService.getLastMessagesForAccountAndContactRingId(accountId, ringId)
-                            .zipWith(mHistoryService.getLastCallsForAccountAndContactRingId(accountId, ringId),
-                                    (lastTexts, lastCalls) -> modelToViewModel(ringId, callContact, lastTexts, lastCalls)).toObservable();
-                }).subscribeOn(Schedulers.computation())
+        //Get the summary of every conversation at once, then create a smartList entry for all non-ban contacts
+        mCompositeDisposable.add(mHistoryService.getConversationSummariesForAccount(accountId)
+                .flatMapObservable(summaries -> io.reactivex.Observable.fromIterable(callContacts)
+                        .filter(callContact -> !callContact.isBanned())
+                        .map(callContact -> {
+                            Uri number = callContact.getPhones().get(0).getNumber();
+                            return modelToViewModel(number.toString(), callContact, summaries.get(number.getRawUriString()));
+                        }))
+                .toList()
+                .map(SmartListPresenter::toSortedSmartList)
+                .subscribeOn(Schedulers.computation())
                 .observeOn(mMainScheduler)
-                .subscribeWith(new DisposableObserver<SmartListViewModel>() {
-                    @Override
-                    public void onNext(SmartListViewModel smartListViewModel) {
-                        mSmartListViewModels.add(smartListViewModel);
-                    }
-
-                    @Override
-                    public void onError(Throwable e) {
-                        Log.d(TAG, e.toString());
-                    }
-
-                    @Override
-                    public void onComplete() {
-                        if (mSmartListViewModels.size() > 0) {
-                            Collections.sort(mSmartListViewModels, new SmartListViewModel.SmartListComparator());
-                            getView().updateList(mSmartListViewModels);
-                            getView().hideNoConversationMessage();
-                            getView().setLoading(false);
-                        } else {
-                            getView().hideList();
-                            getView().displayNoConversationMessage();
-                            getView().setLoading(false);
-                        }
-                    }
-                }));
+                .subscribeWith(new SmartListObserver()));
     }
 
     private void loadContacts() {
-        mSmartListViewModels = new ArrayList<>(mContactService.getContactsDaemon().size());
-
         mCompositeDisposable.add(
                 Single.fromCallable(() -> mContactService.loadContactsFromSystem(false, true))
                 .flatMapObservable(longCallContactMap ->
                         io.reactivex.Observable.fromIterable(longCallContactMap.values()))
-                        .map(this::modelToViewModel).subscribeOn(Schedulers.computation())
+                        .map(this::modelToViewModel)
+                .toList()
+                .map(SmartListPresenter::toSortedSmartList)
+                .subscribeOn(Schedulers.computation())
                 .observeOn(mMainScheduler)
-                .subscribeWith(new DisposableObserver<SmartListViewModel>() {
-                    @Override
-                    public void onNext(SmartListViewModel smartListViewModel) {
-                        mSmartListViewModels.add(smartListViewModel);
-                    }
+                .subscribeWith(new SmartListObserver()));
 
-                    @Override
-                    public void onError(Throwable e) {
-                        Log.d(TAG, e.toString());
-                    }
+    }
 
-                    @Override
-                    public void onComplete() {
-                        if (mSmartListViewModels.size() > 0) {
-                            Collections.sort(mSmartListViewModels, new SmartListViewModel.SmartListComparator());
-                            getView().updateList(mSmartListViewModels);
-                            getView().hideNoConversationMessage();
-                            getView().setLoading(false);
-                        } else {
-                            getView().hideList();
-                            getView().displayNoConversationMessage();
-                            getView().setLoading(false);
-                        }
-                    }
-                }));
+    private static SortedSmartList toSortedSmartList(List<SmartListViewModel> smartListViewModels) {
+        SortedSmartList smartList = new SortedSmartList();
+        smartList.setAll(smartListViewModels);
+        return smartList;
+    }
 
+    /**
+     * Replaces the whole list once loaded and sorted
+     */
+    private class SmartListObserver extends DisposableSingleObserver<SortedSmartList> {
+        @Override
+        public void onSuccess(SortedSmartList smartList) {
+            mSmartList = smartList;
+            mSmartListLoaded = true;
+            if (!mSmartList.isEmpty()) {
+                updateFilteredList();
+                getView().hideNoConversationMessage();
+                getView().setLoading(false);
+            } else {
+                getView().hideList();
+                getView().displayNoConversationMessage();
+                getView().setLoading(false);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            Log.d(TAG, e.toString());
+        }
+    }
+
+    /**
+     * Replaces a row of the list, and sends only this row to the view when the list is not filtered
+     */
+    private void updateRow(SmartListViewModel smartListViewModel) {
+        SortedSmartList.Delta delta = mSmartList.put(smartListViewModel);
+        if (getView() == null) {
+            return;
+        }
+        if (mQuery.isEmpty()) {
+            getView().updateListItem(delta.item, delta.from, delta.to);
+        } else {
+            updateFilteredList();
+        }
+    }
+
+    /**
+     * Sends the list to the view, searched with the query on the computation scheduler
+     */
+    private void updateFilteredList() {
+        if (mFilterDisposable != null) {
+            // superseded search
+            mCompositeDisposable.remove(mFilterDisposable);
+            mFilterDisposable = null;
+        }
+        if (mQuery.isEmpty()) {
+            getView().updateList(new ArrayList<>(mSmartList.getList()));
+            return;
+        }
+        // the list keeps being updated on the main thread during the search
+        final SortedSmartList.Snapshot snapshot = mSmartList.snapshot();
+        final String query = mQuery;
+        mFilterDisposable = Single.fromCallable(() -> snapshot.search(query))
+                .subscribeOn(Schedulers.computation())
+                .observeOn(mMainScheduler)
+                .subscribe(filteredList -> {
+                    if (getView() != null) {
+                        getView().updateList(filteredList);
+                    }
+                }, e -> Log.e(TAG, "Error while searching the smart list", e));
+        mCompositeDisposable.add(mFilterDisposable);
     }
 
-    private SmartListViewModel modelToViewModel(String ringId, CallContact callContact, @NonNull List<HistoryText> lastTexts, @NonNull List<HistoryCall> lastCalls) {
-        HistoryText lastText = lastTexts.size() > 0 ? lastTexts.get(0) : null;
-        HistoryCall lastCall = lastCalls.size() > 0 ? lastCalls.get(0) : null;
+    private static String getLastLine(String message) {
+        if (message != null && !message.isEmpty() && message.contains("\n")) {
+            int lastIndexOfChar = message.lastIndexOf("\n");
+            if (lastIndexOfChar + 1 < message.length()) {
+                return message.substring(lastIndexOfChar + 1);
+            }
+        }
+        return message;
+    }
 
+    private SmartListViewModel modelToViewModel(String ringId, CallContact callContact, ConversationSummary summary) {
         long lastInteractionLong = 0;
         int lastEntryType = 0;
         String lastInteraction = "";
-        boolean hasUnreadMessage = lastText != null && !lastText.isRead();
-
-        long lastTextTimestamp = lastText != null ? lastText.getDate() : 0;
-        long lastCallTimestamp = lastCall != null ? lastCall.getEndDate().getTime() : 0;
-        if (lastTextTimestamp > 0 && lastTextTimestamp > lastCallTimestamp) {
-            String msgString = lastText.getMessage();
-            if (msgString != null && !msgString.isEmpty() && msgString.contains("\n")) {
-                int lastIndexOfChar = msgString.lastIndexOf("\n");
-                if (lastIndexOfChar + 1 < msgString.length()) {
-                    msgString = msgString.substring(msgString.lastIndexOf("\n") + 1);
-                }
-            }
-            lastInteractionLong = lastTextTimestamp;
-            lastEntryType = lastText.isIncoming() ? SmartListViewModel.TYPE_INCOMING_MESSAGE : SmartListViewModel.TYPE_OUTGOING_MESSAGE;
+        boolean hasUnreadMessage = summary != null && summary.getUnreadCount() > 0;
+
+        if (summary != null && summary.getLastType() == IConversationElement.CEType.FILE) {
+            lastInteractionLong = summary.getLastInteractionTime();
+            lastEntryType = summary.isLastIncoming() ? SmartListViewModel.TYPE_INCOMING_MESSAGE : SmartListViewModel.TYPE_OUTGOING_MESSAGE;
+            lastInteraction = summary.getLastMessage() != null ? summary.getLastMessage() : "";
+        } else if (summary != null && summary.getLastType() == IConversationElement.CEType.TEXT) {
+            String msgString = getLastLine(summary.getLastMessage());
+            lastInteractionLong = summary.getLastInteractionTime();
+            lastEntryType = summary.isLastIncoming() ? SmartListViewModel.TYPE_INCOMING_MESSAGE : SmartListViewModel.TYPE_OUTGOING_MESSAGE;
             lastInteraction = msgString;
-
-        } else if (lastCallTimestamp > 0) {
-            lastInteractionLong = lastCallTimestamp;
-            lastEntryType = lastCall.isIncoming() ? SmartListViewModel.TYPE_INCOMING_CALL : SmartListViewModel.TYPE_OUTGOING_CALL;
-            lastInteraction = lastCall.getDurationString();
+        } else if (summary != null && summary.getLastType() == IConversationElement.CEType.CALL) {
+            lastInteractionLong = summary.getLastInteractionTime();
+            lastEntryType = summary.isLastIncoming() ? SmartListViewModel.TYPE_INCOMING_CALL : SmartListViewModel.TYPE_OUTGOING_CALL;
+            lastInteraction = HistoryCall.getDurationString(summary.getLastCallDuration());
         }
 
         SmartListViewModel smartListViewModel;
@@ -398,6 +433,7 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
                 lastEntryType,
                 lastInteraction,
                 hasUnreadMessage);
+        smartListViewModel.setUsername(callContact.getUsername());
         smartListViewModel.setOnline(mPresenceService.isBuddyOnline(callContact.getIds().get(0)));
 
         return smartListViewModel;
@@ -421,80 +457,64 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
         return smartListViewModel;
     }
 
-    private ArrayList<SmartListViewModel> filter(ArrayList<SmartListViewModel> list, String query) {
-        ArrayList<SmartListViewModel> filteredList = new ArrayList<>();
-        if (list == null || list.size() == 0) {
-            return filteredList;
+    private void updateContactName(String contactName, String contactId) {
+        SmartListViewModel smartListViewModel = mSmartList.get(contactId);
+        if (smartListViewModel == null) {
+            return;
         }
-        for (SmartListViewModel smartListViewModel : list) {
-            if (smartListViewModel.getContactName().toLowerCase().contains(query.toLowerCase())) {
-                filteredList.add(smartListViewModel);
-            }
+        if (smartListViewModel.getContactName() != null && !smartListViewModel.getContactName().contains(CallContact.PREFIX_RING)) {
+            return;
         }
-        return filteredList;
-    }
-
-    private void updateContactName(String contactName, String contactId) {
-        Iterator<SmartListViewModel> it = mSmartListViewModels.iterator();
-        while (it.hasNext()) {
-            SmartListViewModel smartListViewModel = it.next();
-            if (smartListViewModel.getUuid() != null && smartListViewModel.getUuid().contains(contactId)) {
-                if (smartListViewModel.getContactName() != null && !smartListViewModel.getContactName().contains(CallContact.PREFIX_RING)) {
-                    break;
-                }
-                mContactService.updateContactUserName(new Uri(smartListViewModel.getUuid()), contactName);
-                if (!smartListViewModel.getContactName().equals(contactName)) {
-                    it.remove();
-                    SmartListViewModel newViewModel = new SmartListViewModel(smartListViewModel);
-                    newViewModel.setContactName(contactName);
-                    mSmartListViewModels.add(newViewModel);
-
-                    Collections.sort(mSmartListViewModels, new SmartListViewModel.SmartListComparator());
-                    getView().updateList(mSmartListViewModels);
-                }
-                break;
-            }
+        mContactService.updateContactUserName(new Uri(smartListViewModel.getUuid()), contactName);
+        if (!smartListViewModel.getContactName().equals(contactName)) {
+            SmartListViewModel newViewModel = new SmartListViewModel(smartListViewModel);
+            newViewModel.setContactName(contactName);
+            newViewModel.setUsername(contactName);
+            updateRow(newViewModel);
         }
     }
 
-    private void updatePresence() {
-        Iterator<SmartListViewModel> it = mSmartListViewModels.iterator();
-        while (it.hasNext()) {
-            SmartListViewModel smartListViewModel = it.next();
-            boolean isOnline = mPresenceService.isBuddyOnline(smartListViewModel.getUuid());
-            if (smartListViewModel.isOnline() != isOnline) {
-                it.remove();
-                SmartListViewModel newViewModel = new SmartListViewModel(smartListViewModel);
-                newViewModel.setOnline(isOnline);
-                mSmartListViewModels.add(newViewModel);
-
-                Collections.sort(mSmartListViewModels, new SmartListViewModel.SmartListComparator());
-                getView().updateList(mSmartListViewModels);
-                break;
-            }
+    private void updatePresence(String buddyUri) {
+        SmartListViewModel smartListViewModel = mSmartList.get(buddyUri);
+        if (smartListViewModel == null) {
+            return;
+        }
+        boolean isOnline = mPresenceService.isBuddyOnline(smartListViewModel.getUuid());
+        if (smartListViewModel.isOnline() != isOnline) {
+            SmartListViewModel newViewModel = new SmartListViewModel(smartListViewModel);
+            newViewModel.setOnline(isOnline);
+            updateRow(newViewModel);
         }
     }
 
     private void updateIncomingCall(String from) {
-        Iterator<SmartListViewModel> it = mSmartListViewModels.iterator();
         Log.d(TAG, from);
-        while (it.hasNext()) {
-            SmartListViewModel smartListViewModel = it.next();
-
-            if (smartListViewModel.getUuid().contains(from)) {
-                it.remove();
-                Log.d(TAG, from + smartListViewModel.getContactName());
-                SmartListViewModel newViewModel = new SmartListViewModel(smartListViewModel);
-                newViewModel.setHasOngoingCall(true);
-                mSmartListViewModels.add(newViewModel);
-
-                Collections.sort(mSmartListViewModels, new SmartListViewModel.SmartListComparator());
-                getView().updateList(mSmartListViewModels);
-                break;
-            }
+        SmartListViewModel smartListViewModel = mSmartList.get(from);
+        if (smartListViewModel != null) {
+            Log.d(TAG, from + smartListViewModel.getContactName());
+            SmartListViewModel newViewModel = new SmartListViewModel(smartListViewModel);
+            newViewModel.setHasOngoingCall(true);
+            updateRow(newViewModel);
         }
     }
 
+    private void updateIncomingMessage(TextMessage txt) {
+        SmartListViewModel smartListViewModel = mSmartList.get(txt.getNumberUri().getRawUriString());
+        if (smartListViewModel == null) {
+            // new conversation
+            loadConversations();
+            return;
+        }
+        SmartListViewModel newViewModel = new SmartListViewModel(smartListViewModel);
+        newViewModel.setLastInteraction(txt.getDate(),
+                txt.isIncoming() ? SmartListViewModel.TYPE_INCOMING_MESSAGE : SmartListViewModel.TYPE_OUTGOING_MESSAGE,
+                getLastLine(txt.getMessage()));
+        if (txt.isIncoming() && !txt.isRead()) {
+            newViewModel.setHasUnreadTextMessage(true);
+        }
+        updateRow(newViewModel);
+    }
+
     private void parseEventState(String name, String address, int state) {
         switch (state) {
             case 0:
@@ -508,7 +528,7 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
                         return;
                     }
                     getView().hideSearchRow();
-                    updateContactName(name, address);
+                    runOnMainThread(() -> updateContactName(name, address));
                 }
                 break;
             case 1:
@@ -547,15 +567,18 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
         }
 
         mAccountService.removeContact(mAccountService.getCurrentAccount().getAccountID(), contactId, true);
-        mSmartListViewModels.remove(smartListViewModel);
+        SortedSmartList.Delta delta = mSmartList.remove(smartListViewModel.getUuid());
+        if (delta != null && mQuery.isEmpty()) {
+            getView().removeListItem(delta.from);
+        }
     }
 
     private void subscribePresence() {
-        if (mAccountService.getCurrentAccount() == null || mSmartListViewModels == null || mSmartListViewModels.isEmpty()) {
+        if (mAccountService.getCurrentAccount() == null || mSmartList.isEmpty()) {
             return;
         }
         String accountId = mAccountService.getCurrentAccount().getAccountID();
-        for (SmartListViewModel smartListViewModel : mSmartListViewModels) {
+        for (SmartListViewModel smartListViewModel : mSmartList.getList()) {
             String ringId = smartListViewModel.getUuid();
             Uri uri = new Uri(ringId);
             if (uri.isRingId()) {
@@ -596,8 +619,14 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
                 case INCOMING_MESSAGE:
                     TextMessage txt = event.getEventInput(ServiceEvent.EventInput.MESSAGE, TextMessage.class);
                     if (txt.getAccount().equals(mAccountService.getCurrentAccount().getAccountID())) {
-                        loadConversations();
-                        getView().scrollToTop();
+                        runOnMainThread(() -> {
+                            if (mSmartListLoaded) {
+                                updateIncomingMessage(txt);
+                            } else {
+                                loadConversations();
+                            }
+                            getView().scrollToTop();
+                        });
                     }
                     return;
                 case HISTORY_MODIFIED:
@@ -611,7 +640,8 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
             switch (event.getEventType()) {
                 case INCOMING_CALL:
                     SipCall call = event.getEventInput(ServiceEvent.EventInput.CALL, SipCall.class);
-                    updateIncomingCall(call.getNumber());
+                    final String number = call.getNumber();
+                    runOnMainThread(() -> updateIncomingCall(number));
                     return;
             }
         }
@@ -620,10 +650,23 @@ public class SmartListPresenter extends RootPresenter<SmartListView> implements
         if (observable instanceof PresenceService) {
             switch (event.getEventType()) {
                 case NEW_BUDDY_NOTIFICATION:
-                    updatePresence();
+                    final String buddyUri = event.getString(ServiceEvent.EventInput.BUDDY_URI);
+                    runOnMainThread(() -> updatePresence(buddyUri));
                     return;
                 default:
             }
         }
     }
+
+    /**
+     * Updates the rows on the main thread, where the list is loaded.
+     * The tasks are short and frequent, they are not tracked: a task running after unbindView does nothing.
+     */
+    private void runOnMainThread(Runnable runnable) {
+        mMainScheduler.scheduleDirect(() -> {
+            if (getView() != null) {
+                runnable.run();
+            }
+        });
+    }
 }
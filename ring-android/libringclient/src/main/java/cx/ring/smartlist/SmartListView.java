@@ -56,6 +56,16 @@ public interface SmartListView extends BaseView {
 
     void updateList(ArrayList<SmartListViewModel> smartListViewModels);
 
+    /**
+     * Updates a single row of the list
+     *
+     * @param oldPosition previous position of the row, -1 for a new row
+     * @param newPosition new position of the row
+     */
+    void updateListItem(SmartListViewModel smartListViewModel, int oldPosition, int newPosition);
+
+    void removeListItem(int position);
+
     void goToConversation(String accountId, String contactId);
 
     void goToCallActivity(String accountId, String contactId);
@@ -33,6 +33,7 @@ public class SmartListViewModel {
 
     private String uuid;
     private String contactName;
+    private String username;
     private String lastInteraction = "";
     private byte[] photoData;
     private long lastInteractionTime;
@@ -57,6 +58,7 @@ public class SmartListViewModel {
     public SmartListViewModel(SmartListViewModel smartListViewModel) {
         this.uuid = smartListViewModel.getUuid();
         this.contactName = smartListViewModel.getContactName();
+        this.username = smartListViewModel.getUsername();
         this.photoData = smartListViewModel.getPhotoData();
         this.lastInteractionTime = smartListViewModel.getLastInteractionTime();
         this.hasUnreadTextMessage = smartListViewModel.hasUnreadTextMessage();
@@ -64,19 +66,27 @@ public class SmartListViewModel {
         this.status = smartListViewModel.getStatus();
         this.lastEntryType = smartListViewModel.getLastEntryType();
         this.lastInteraction = smartListViewModel.getLastInteraction();
+        this.isOnline = smartListViewModel.isOnline();
     }
 
+    /**
+     * Ongoing calls first, then the most recent interactions.
+     * This is a total order on the contacts, as required by {@link SortedSmartList}.
+     */
     public static class SmartListComparator implements Comparator<SmartListViewModel> {
         @Override
         public int compare(SmartListViewModel lhs, SmartListViewModel rhs) {
-            if (lhs.hasOngoingCall) {
-                return -1;
+            if (lhs.hasOngoingCall != rhs.hasOngoingCall) {
+                return lhs.hasOngoingCall ? -1 : 1;
             }
             if (rhs.getLastInteractionTime() != lhs.getLastInteractionTime()) {
-                return (int) ((rhs.getLastInteractionTime() - lhs.getLastInteractionTime()) / 1000L);
-            } else {
-                return (rhs.getContactName().compareTo(lhs.getContactName()));
+                return rhs.getLastInteractionTime() > lhs.getLastInteractionTime() ? 1 : -1;
             }
+            int names = rhs.getContactName().compareTo(lhs.getContactName());
+            if (names != 0) {
+                return names;
+            }
+            return lhs.getUuid().compareTo(rhs.getUuid());
         }
     }
 
@@ -143,6 +153,17 @@ public class SmartListViewModel {
         this.contactName = contactName;
     }
 
+    /**
+     * @return the registered username of the contact, or null
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
     public void setHasOngoingCall(boolean hasOngoingCall) {
         this.hasOngoingCall = hasOngoingCall;
     }
@@ -150,4 +171,14 @@ public class SmartListViewModel {
     public int getLastEntryType() {
         return lastEntryType;
     }
+
+    public void setLastInteraction(long lastInteractionTime, int lastEntryType, String lastInteraction) {
+        this.lastInteractionTime = lastInteractionTime;
+        this.lastEntryType = lastEntryType;
+        this.lastInteraction = lastInteraction;
+    }
+
+    public void setHasUnreadTextMessage(boolean hasUnreadTextMessage) {
+        this.hasUnreadTextMessage = hasUnreadTextMessage;
+    }
 }
@@ -0,0 +1,226 @@
+/*
+ *  Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package cx.ring.smartlist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cx.ring.model.Uri;
+import cx.ring.utils.StringUtils;
+
+/**
+ * Rows of the smart list, kept sorted with {@link SmartListViewModel.SmartListComparator} and indexed by contact.
+ * A row update is found and moved with binary searches, and reported as a {@link Delta}.
+ * The contact names, registered usernames and Ring ids are kept normalized with {@link StringUtils#toSearchKey},
+ * in the order of the rows, for {@link #search}.
+ * <p>
+ * The rows are immutable once added: an update replaces the row with a modified copy.
+ */
+public class SortedSmartList {
+
+    /**
+     * Move of a row in the list
+     */
+    public static class Delta {
+        /**
+         * previous position of the row, -1 if inserted
+         */
+        public final int from;
+        /**
+         * new position of the row, -1 if removed
+         */
+        public final int to;
+        public final SmartListViewModel item;
+
+        Delta(int from, int to, SmartListViewModel item) {
+            this.from = from;
+            this.to = to;
+            this.item = item;
+        }
+    }
+
+    private final Comparator<SmartListViewModel> mComparator = new SmartListViewModel.SmartListComparator();
+    private final ArrayList<SmartListViewModel> mItems = new ArrayList<>();
+    // normalized contact name, username and Ring id of each row, at the same position
+    private final ArrayList<String> mSearchKeys = new ArrayList<>();
+    private final Map<String, SmartListViewModel> mItemsByKey = new HashMap<>();
+
+    /**
+     * @return the key of the contact, whatever the representation of its Ring id
+     */
+    public static String getKey(String uri) {
+        Uri contactUri = new Uri(uri);
+        return contactUri.isRingId() ? contactUri.getRawRingId() : contactUri.getRawUriString();
+    }
+
+    public void setAll(Collection<SmartListViewModel> items) {
+        mItems.clear();
+        mItemsByKey.clear();
+        for (SmartListViewModel item : items) {
+            SmartListViewModel previous = mItemsByKey.put(getKey(item.getUuid()), item);
+            if (previous != null) {
+                mItems.remove(previous);
+            }
+            mItems.add(item);
+        }
+        Collections.sort(mItems, mComparator);
+        mSearchKeys.clear();
+        mSearchKeys.ensureCapacity(mItems.size());
+        for (SmartListViewModel item : mItems) {
+            mSearchKeys.add(getSearchKey(item));
+        }
+    }
+
+    /**
+     * @return the row of the contact, or null
+     */
+    public SmartListViewModel get(String uri) {
+        return mItemsByKey.get(getKey(uri));
+    }
+
+    /**
+     * Inserts the row or replaces the row of the same contact
+     */
+    public Delta put(SmartListViewModel item) {
+        SmartListViewModel previous = mItemsByKey.put(getKey(item.getUuid()), item);
+        int from = -1;
+        String searchKey;
+        if (previous != null) {
+            from = indexOf(previous);
+            mItems.remove(from);
+            searchKey = mSearchKeys.remove(from);
+            if (!equals(previous.getContactName(), item.getContactName()) || !equals(previous.getUsername(), item.getUsername())) {
+                searchKey = getSearchKey(item);
+            }
+        } else {
+            searchKey = getSearchKey(item);
+        }
+        int to = Collections.binarySearch(mItems, item, mComparator);
+        if (to < 0) {
+            to = -to - 1;
+        }
+        mItems.add(to, item);
+        mSearchKeys.add(to, searchKey);
+        return new Delta(from, to, item);
+    }
+
+    /**
+     * @return the removal of the row of the contact, or null if absent
+     */
+    public Delta remove(String uri) {
+        SmartListViewModel previous = mItemsByKey.remove(getKey(uri));
+        if (previous == null) {
+            return null;
+        }
+        int from = indexOf(previous);
+        mItems.remove(from);
+        mSearchKeys.remove(from);
+        return new Delta(from, -1, previous);
+    }
+
+    /**
+     * @return the normalized contact name, username and Ring id of the row, on separate lines so that a query does not match across them
+     */
+    private static String getSearchKey(SmartListViewModel item) {
+        StringBuilder searchKey = new StringBuilder(StringUtils.toSearchKey(item.getContactName()));
+        if (!StringUtils.isEmpty(item.getUsername())) {
+            searchKey.append('\n').append(StringUtils.toSearchKey(item.getUsername()));
+        }
+        return searchKey.append('\n').append(StringUtils.toSearchKey(getKey(item.getUuid()))).toString();
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private int indexOf(SmartListViewModel item) {
+        int index = Collections.binarySearch(mItems, item, mComparator);
+        if (index >= 0 && mItems.get(index) == item) {
+            return index;
+        }
+        // not expected with a consistent comparator
+        return mItems.indexOf(item);
+    }
+
+    /**
+     * @return the sorted rows, not to be modified
+     */
+    public List<SmartListViewModel> getList() {
+        return mItems;
+    }
+
+    /**
+     * Searches the rows whose contact name, registered username or Ring id contains the query, ignoring case and accents
+     *
+     * @return the matching rows, in the order of the list
+     */
+    public ArrayList<SmartListViewModel> search(String query) {
+        return search(mItems, mSearchKeys, query);
+    }
+
+    /**
+     * @return a copy of the rows, to be searched on another thread while the list is updated
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(new ArrayList<>(mItems), new ArrayList<>(mSearchKeys));
+    }
+
+    /**
+     * Rows of the list at the time of {@link #snapshot()}
+     */
+    public static class Snapshot {
+        private final List<SmartListViewModel> mItems;
+        private final List<String> mSearchKeys;
+
+        private Snapshot(List<SmartListViewModel> items, List<String> searchKeys) {
+            mItems = items;
+            mSearchKeys = searchKeys;
+        }
+
+        /**
+         * @see SortedSmartList#search(String)
+         */
+        public ArrayList<SmartListViewModel> search(String query) {
+            return SortedSmartList.search(mItems, mSearchKeys, query);
+        }
+    }
+
+    private static ArrayList<SmartListViewModel> search(List<SmartListViewModel> items, List<String> searchKeys, String query) {
+        ArrayList<SmartListViewModel> filteredList = new ArrayList<>();
+        String searchKey = StringUtils.toSearchKey(query);
+        for (int i = 0; i < items.size(); i++) {
+            if (searchKeys.get(i).contains(searchKey)) {
+                filteredList.add(items.get(i));
+            }
+        }
+        return filteredList;
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    public boolean isEmpty() {
+        return mItems.isEmpty();
+    }
+}
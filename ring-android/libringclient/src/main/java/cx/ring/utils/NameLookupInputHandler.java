@@ -18,45 +18,27 @@
  */
 package cx.ring.utils;
 
-import java.lang.ref.WeakReference;
-import java.util.Timer;
-import java.util.TimerTask;
-
 import cx.ring.services.AccountService;
+import cx.ring.services.NameLookupPipeline;
 
+/**
+ * Name lookups of a search field, debounced on the shared {@link NameLookupPipeline} of the account service
+ */
 public class NameLookupInputHandler {
-    private static final int WAIT_DELAY = 350;
-    private final WeakReference<AccountService> mAccountService;
-    private final String mAccountId;
-    private final Timer timer = new Timer(true);
-    private NameTask lastTask = null;
+    private final NameLookupPipeline.Session mSession;
 
     public NameLookupInputHandler(AccountService accountService, String accountId) {
-        mAccountService = new WeakReference<>(accountService);
-        mAccountId = accountId;
+        mSession = accountService.getNameLookupPipeline().newSession(accountId);
     }
 
     public void enqueueNextLookup(String text) {
-        if (lastTask != null) {
-            lastTask.cancel();
-        }
-        lastTask = new NameTask(text);
-        timer.schedule(lastTask, WAIT_DELAY);
+        mSession.lookup(text);
     }
 
-    private class NameTask extends TimerTask {
-        private final String mTextToLookup;
-
-        NameTask(String name) {
-            mTextToLookup = name;
-        }
-
-        @Override
-        public void run() {
-            final AccountService accountService = mAccountService.get();
-            if (accountService != null) {
-                accountService.lookupName(mAccountId, "", mTextToLookup);
-            }
-        }
+    /**
+     * Cancels the lookup not sent yet, ie when the field is closed
+     */
+    public void cancel() {
+        mSession.cancel();
     }
-}
\ No newline at end of file
+}
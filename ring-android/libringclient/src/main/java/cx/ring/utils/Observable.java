@@ -21,29 +21,62 @@
 package cx.ring.utils;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import cx.ring.model.ServiceEvent;
+
+/**
+ * Observers are weakly referenced in a copy-on-write array: notifying does not lock nor copy the array,
+ * and the references cleared by the garbage collector are pruned when found.
+ * An observer can subscribe to a set of event types, it is then only notified of the ServiceEvents of these types.
+ * Each call to setChanged() allows one call to notifyObservers(), so concurrent notifications are not lost.
+ */
 public class Observable {
 
-    private List<WeakReference<Observer>> mObservers;
-    private boolean mIsChanged;
+    private static final Subscription[] NO_OBSERVERS = new Subscription[0];
+
+    private volatile Subscription[] mObservers = NO_OBSERVERS;
+    private final AtomicInteger mChanged = new AtomicInteger();
+
+    private static class Subscription extends WeakReference<Observer> {
+        // null to receive all the notifications
+        private final EnumSet<ServiceEvent.EventType> mEventTypes;
+
+        Subscription(Observer observer, EnumSet<ServiceEvent.EventType> eventTypes) {
+            super(observer);
+            mEventTypes = eventTypes;
+        }
 
-    public synchronized void addObserver(Observer observer) {
-        if (mObservers == null) {
-            mObservers = new ArrayList<>();
+        boolean accepts(ServiceEvent.EventType eventType) {
+            return mEventTypes == null || (eventType != null && mEventTypes.contains(eventType));
         }
+    }
+
+    private synchronized void addSubscription(Subscription subscription) {
+        Subscription[] observers = Arrays.copyOf(mObservers, mObservers.length + 1);
+        observers[observers.length - 1] = subscription;
+        mObservers = observers;
+    }
+
+    public void addObserver(Observer observer) {
+        addSubscription(new Subscription(observer, null));
+    }
 
-        mObservers.add(new WeakReference<>(observer));
+    /**
+     * Subscribes the observer to the ServiceEvents of the given types only
+     */
+    public void addObserver(Observer observer, ServiceEvent.EventType eventType, ServiceEvent.EventType... eventTypes) {
+        addSubscription(new Subscription(observer, EnumSet.of(eventType, eventTypes)));
     }
 
-    public synchronized void setChanged() {
-        mIsChanged = true;
+    public void setChanged() {
+        mChanged.incrementAndGet();
     }
 
-    public synchronized void clearChanged() {
-        mIsChanged = false;
+    public void clearChanged() {
+        mChanged.set(0);
     }
 
     public void notifyObservers() {
@@ -51,45 +84,53 @@ public class Observable {
     }
 
     public void notifyObservers(Object argument) {
-
-        if (!mIsChanged) {
-            return;
-        }
-
-        List<WeakReference<Observer>> notifyObservers = new ArrayList<>(mObservers);
-        for (WeakReference<Observer> weakObserver : notifyObservers) {
-            final Observer realObserver = weakObserver.get();
-            if (realObserver != null) {
+        int changed;
+        do {
+            changed = mChanged.get();
+            if (changed == 0) {
+                return;
+            }
+        } while (!mChanged.compareAndSet(changed, changed - 1));
+
+        ServiceEvent.EventType eventType = argument instanceof ServiceEvent ? ((ServiceEvent) argument).getEventType() : null;
+        boolean prune = false;
+        for (Subscription subscription : mObservers) {
+            final Observer realObserver = subscription.get();
+            if (realObserver == null) {
+                prune = true;
+            } else if (subscription.accepts(eventType)) {
                 realObserver.update(this, argument);
             }
-
         }
 
-        clearChanged();
+        if (prune) {
+            removeObserver(null);
+        }
     }
 
+    /**
+     * Removes all the subscriptions of the observer, and the ones of the garbage collected observers
+     */
     public synchronized void removeObserver(Observer observerToRemove) {
-
-        if (observerToRemove == null) {
-            return;
-        }
-
-        Iterator<WeakReference<Observer>> observerIterator = mObservers.iterator();
-        while (observerIterator.hasNext()) {
-            WeakReference<Observer> weakObserver = observerIterator.next();
-            Observer observer = weakObserver.get();
-            if (observerToRemove == observer) {
-                observerIterator.remove();
+        Subscription[] observers = new Subscription[mObservers.length];
+        int count = 0;
+        for (Subscription subscription : mObservers) {
+            Observer observer = subscription.get();
+            if (observer != null && observer != observerToRemove) {
+                observers[count++] = subscription;
             }
         }
+        if (count != mObservers.length) {
+            mObservers = count == 0 ? NO_OBSERVERS : Arrays.copyOf(observers, count);
+        }
     }
 
-    public synchronized boolean hasChanged() {
-        return mIsChanged;
+    public boolean hasChanged() {
+        return mChanged.get() > 0;
     }
 
-    public synchronized int countObservers() {
-        return mObservers.size();
+    public int countObservers() {
+        return mObservers.length;
     }
 
 }
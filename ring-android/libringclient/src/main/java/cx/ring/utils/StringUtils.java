@@ -20,11 +20,15 @@
  */
 package cx.ring.utils;
 
+import java.text.Normalizer;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.regex.Pattern;
 
 public final class StringUtils {
 
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
     public static boolean isEmpty(String s) {
         return s == null || s.isEmpty();
     }
@@ -49,6 +53,17 @@ public final class StringUtils {
         return new String(chars);
     }
 
+    /**
+     * @return the string in lower case without accents, to match the user input whatever the case and accents
+     */
+    public static String toSearchKey(String s) {
+        if (isEmpty(s)) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(s.toLowerCase(), Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("");
+    }
+
     public static String toNumber(String s) {
         return s.replace("(", "")
                 .replace(")", "")
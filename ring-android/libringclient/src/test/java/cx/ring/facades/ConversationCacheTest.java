@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.facades;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cx.ring.model.CallContact;
+import cx.ring.model.Conversation;
+import cx.ring.model.TextMessage;
+import cx.ring.model.Uri;
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConversationCacheTest {
+
+    private static final int MESSAGES = 100;
+
+    @Before
+    public void setUp() {
+        TestLogService.install();
+    }
+
+    private static Conversation conversation(long contactId, boolean read) {
+        Conversation conversation = new Conversation(new CallContact(contactId));
+        for (int i = 0; i < MESSAGES; i++) {
+            TextMessage message = new TextMessage(true, "Message " + i, new Uri("ring:test" + contactId), null, "account");
+            message.setID(contactId * MESSAGES + i + 1);
+            if (read) {
+                message.read();
+            }
+            conversation.addTextMessage(message);
+        }
+        conversation.setHistoryCursor(0, false);
+        return conversation;
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        Conversation first = conversation(1, true);
+        long size = first.getTimeline().getEstimatedSize();
+        assertTrue(size > 0);
+
+        ConversationCache cache = new ConversationCache(size * 2);
+        Conversation second = conversation(2, true);
+        cache.update(first);
+        cache.update(second);
+        assertEquals(2, cache.getConversationCount());
+
+        // first is used again, second is trimmed
+        cache.access(first);
+        cache.update(conversation(3, true));
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(second.getTimeline().isEmpty());
+        assertFalse(second.isHistoryLoaded());
+        assertEquals("account", second.getLastAccountUsed());
+        assertEquals(MESSAGES, first.getTimeline().size());
+        assertEquals(size * 2, cache.getSize());
+
+        cache.access(second);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testConversationsInUseAreKept() {
+        Conversation unread = conversation(1, false);
+        Conversation visible = conversation(2, true);
+        visible.setVisible(true);
+
+        ConversationCache cache = new ConversationCache(0);
+        cache.update(unread);
+        cache.update(visible);
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(MESSAGES, unread.getTimeline().size());
+
+        visible.setVisible(false);
+        cache.setBudget(unread.getTimeline().getEstimatedSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(visible.getTimeline().isEmpty());
+    }
+}
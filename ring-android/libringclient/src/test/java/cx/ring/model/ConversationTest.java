@@ -23,9 +23,14 @@ package cx.ring.model;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Some tests to ensure Conversation integrity
@@ -50,6 +55,18 @@ public class ConversationTest {
 
     @Test
     public void getConference() throws Exception {
+        SipCall call = new SipCall("call1", "account", new Uri("ring:test"), SipCall.Direction.INCOMING);
+        Conference conference = new Conference(call);
+        conversation.addConference(conference);
+        assertEquals(conference, conversation.getConference("call1"));
+
+        // a participant left: its id does not resolve anymore
+        conference.removeParticipant(call);
+        assertNull(conversation.getConference("call1"));
+
+        conversation.removeConference(conference);
+        assertTrue(conversation.getCurrentCalls().isEmpty());
+        assertNull(conversation.getConference("call1"));
     }
 
     @Test
@@ -99,6 +116,20 @@ public class ConversationTest {
 
     @Test
     public void updateTextMessage() throws Exception {
+        TextMessage message = new TextMessage(false, "Coucou", new Uri("ring:test"), null, "1");
+        message.setID(42L);
+        conversation.addTextMessage(message);
+
+        TextMessage update = new TextMessage(false, "Coucou", new Uri("ring:test"), null, "1");
+        update.setID(42L);
+        update.setStatus(TextMessage.Status.READ);
+        assertTrue(conversation.hasTextMessage(update));
+        conversation.updateTextMessage(update);
+        assertEquals(TextMessage.Status.READ, message.getStatus());
+
+        // the same message is added once
+        conversation.addTextMessage(update);
+        assertEquals(1, conversation.getAggregateHistory().size());
     }
 
     @Test
@@ -144,7 +175,7 @@ public class ConversationTest {
     @Test
     public void addFileTransfer() throws Exception {
         int oldSize = conversation.getAggregateHistory().size();
-        conversation.addFileTransfer(new HistoryFileTransfer(1L, "photo.jpg", true, 10L, 0L, "1", "1"));
+        conversation.addFileTransfer(new DataTransfer(1L, "photo.jpg", true, 10L, 0L, "1", "1"));
         int newSize = conversation.getAggregateHistory().size();
 
         assertEquals(0, oldSize);
@@ -161,6 +192,23 @@ public class ConversationTest {
 
     @Test
     public void updateFileTransfer() throws Exception {
+        DataTransfer transfer = new DataTransfer(1234L, "photo.jpg", true, 10L, 0L, "1", "1");
+        conversation.addFileTransfer(transfer);
+        conversation.addFileTransfer(transfer);
+        assertEquals(1, conversation.getAggregateHistory().size());
+
+        // not saved in the database yet
+        conversation.updateFileTransfer(transfer, DataTransferEventCode.ONGOING);
+        assertEquals(DataTransferEventCode.ONGOING, transfer.getEventCode());
+
+        transfer.setId(7L);
+        assertEquals(transfer, conversation.findConversationElement(7L));
+        conversation.updateFileTransfer(transfer, DataTransferEventCode.FINISHED);
+        assertEquals(DataTransferEventCode.FINISHED, transfer.getEventCode());
+
+        // the saved transfer loaded again from the database
+        conversation.addFileTransfer(transfer(7L, transfer.getTimestamp()));
+        assertEquals(1, conversation.getAggregateHistory().size());
     }
 
     @Test
@@ -179,4 +227,74 @@ public class ConversationTest {
         assertEquals(0, lastSize);
     }
 
+    private static DataTransfer transfer(long id, long timestamp) {
+        DataTransfer transfer = new DataTransfer(id, "file" + id, false, 10L, 0L, "1", "1");
+        transfer.setId(id);
+        transfer.timestamp = timestamp;
+        return transfer;
+    }
+
+    private static void assertSorted(List<IConversationElement> elements) {
+        for (int i = 1; i < elements.size(); i++) {
+            assertTrue(elements.get(i - 1).getDate() <= elements.get(i).getDate());
+        }
+    }
+
+    @Test
+    public void timelineAtScale() throws Exception {
+        int count = 50000;
+        List<DataTransfer> transfers = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            transfers.add(transfer(i, i * 1000L));
+        }
+        // live elements come in order, history pages come from the most recent to the oldest
+        List<DataTransfer> shuffled = new ArrayList<>(transfers);
+        Collections.shuffle(shuffled, new Random(1));
+        for (DataTransfer transfer : shuffled) {
+            conversation.addFileTransfer(transfer);
+            // each element is added once
+            conversation.addFileTransfer(transfer);
+        }
+        List<IConversationElement> history = conversation.getAggregateHistory();
+        assertEquals(count, history.size());
+        assertSorted(history);
+
+        // reloaded elements are other instances with the same id
+        for (int i = 1; i <= count; i += 100) {
+            conversation.addFileTransfer(transfer(i, i * 1000L));
+        }
+        assertEquals(count, conversation.getAggregateHistory().size());
+
+        // interleaved reads and insertions
+        for (int i = 1; i <= 1000; i++) {
+            conversation.addFileTransfer(transfer(count + i, (i % 2 == 0 ? i : count + i) * 1000L + 1));
+            assertEquals(count + i, conversation.getAggregateHistory().size());
+        }
+        assertSorted(conversation.getAggregateHistory());
+    }
+
+    @Test
+    public void timelineRanges() throws Exception {
+        ConversationTimeline timeline = conversation.getTimeline();
+        for (int i = 100; i > 0; i--) {
+            conversation.addFileTransfer(transfer(i, i * 1000L));
+        }
+        List<IConversationElement> page = timeline.getRange(10000L, 20000L);
+        assertEquals(10, page.size());
+        assertEquals(10000L, page.get(0).getDate());
+        assertEquals(19000L, page.get(9).getDate());
+        assertEquals(0, timeline.getRange(20000L, 10000L).size());
+        assertEquals(100, timeline.indexOf(Long.MAX_VALUE));
+        assertEquals(timeline.get(50), timeline.subList(50, 60).get(0));
+    }
+
+    @Test
+    public void historyCallsAreDeduplicated() throws Exception {
+        HistoryCall call = new HistoryCall();
+        conversation.addHistoryCall(call);
+        conversation.addHistoryCall(new HistoryCall());
+        assertEquals(1, conversation.getAggregateHistory().size());
+        assertEquals(1, conversation.getHistoryCalls().size());
+    }
+
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.model;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cx.ring.utils.MicroBenchmark;
+import cx.ring.utils.Observable;
+import cx.ring.utils.Observer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation rate of the presence and RTCP event storms, with {@link MicroBenchmark}:
+ * the previous map based event and the array based event.
+ */
+public class ServiceEventBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 10;
+    private static final int OPERATIONS = 100000;
+
+    /**
+     * Payload of the previous ServiceEvent implementation
+     */
+    private static class LegacyServiceEvent {
+        private final ServiceEvent.EventType mType;
+        private final Map<ServiceEvent.EventInput, Object> mInputs = new HashMap<>();
+
+        LegacyServiceEvent(ServiceEvent.EventType type) {
+            mType = type;
+        }
+
+        void addEventInput(ServiceEvent.EventInput input, Object value) {
+            mInputs.put(input, value);
+        }
+
+        <T> T getEventInput(ServiceEvent.EventInput input, Class<T> clazz) {
+            Object value = mInputs.get(input);
+            if (value != null && value.getClass().isAssignableFrom(clazz)) {
+                return (T) mInputs.get(input);
+            }
+            return null;
+        }
+    }
+
+    private static class ReadingObserver implements Observer<Object> {
+        long mSum = 0;
+
+        @Override
+        public void update(Observable observable, Object event) {
+            if (event instanceof ServiceEvent) {
+                ServiceEvent serviceEvent = (ServiceEvent) event;
+                mSum += serviceEvent.getInt(ServiceEvent.EventInput.STATE, 0);
+                mSum += serviceEvent.getString(serviceEvent.getEventType() == ServiceEvent.EventType.RTCP_REPORT_RECEIVED ?
+                        ServiceEvent.EventInput.CALL_ID : ServiceEvent.EventInput.BUDDY_URI).length();
+            } else {
+                LegacyServiceEvent legacyEvent = (LegacyServiceEvent) event;
+                Integer state = legacyEvent.getEventInput(ServiceEvent.EventInput.STATE, Integer.class);
+                mSum += state == null ? 0 : state;
+                mSum += legacyEvent.getEventInput(legacyEvent.mType == ServiceEvent.EventType.RTCP_REPORT_RECEIVED ?
+                        ServiceEvent.EventInput.CALL_ID : ServiceEvent.EventInput.BUDDY_URI, String.class).length();
+            }
+        }
+    }
+
+    private final Observable mService = new Observable();
+    private final ReadingObserver mObserver1 = new ReadingObserver();
+    private final ReadingObserver mObserver2 = new ReadingObserver();
+    private final Map<String, Integer> mStats = new HashMap<>();
+    private int mStatus = 0;
+
+    public ServiceEventBenchmark() {
+        mService.addObserver(mObserver1);
+        mService.addObserver(mObserver2);
+        mStats.put("PacketLoss", 0);
+    }
+
+    private void legacyBuddyNotification(String accountId, String buddyUri, int status, String lineStatus) {
+        mService.setChanged();
+        LegacyServiceEvent event = new LegacyServiceEvent(ServiceEvent.EventType.NEW_BUDDY_NOTIFICATION);
+        event.addEventInput(ServiceEvent.EventInput.ACCOUNT_ID, accountId);
+        event.addEventInput(ServiceEvent.EventInput.BUDDY_URI, buddyUri);
+        event.addEventInput(ServiceEvent.EventInput.STATE, status);
+        event.addEventInput(ServiceEvent.EventInput.LINE_STATE, lineStatus);
+        mService.notifyObservers(event);
+    }
+
+    private void newBuddyNotification(String accountId, String buddyUri, int status, String lineStatus) {
+        mService.setChanged();
+        ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.NEW_BUDDY_NOTIFICATION);
+        event.addEventInput(ServiceEvent.EventInput.ACCOUNT_ID, accountId);
+        event.addEventInput(ServiceEvent.EventInput.BUDDY_URI, buddyUri);
+        event.addEventInput(ServiceEvent.EventInput.STATE, status);
+        event.addEventInput(ServiceEvent.EventInput.LINE_STATE, lineStatus);
+        mService.notifyObservers(event);
+    }
+
+    private void legacyRtcpReport(String callId, Object stats) {
+        mService.setChanged();
+        LegacyServiceEvent event = new LegacyServiceEvent(ServiceEvent.EventType.RTCP_REPORT_RECEIVED);
+        event.addEventInput(ServiceEvent.EventInput.CALL_ID, callId);
+        event.addEventInput(ServiceEvent.EventInput.STATS, stats);
+        mService.notifyObservers(event);
+    }
+
+    private void rtcpReport(String callId, Object stats) {
+        mService.setChanged();
+        ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.RTCP_REPORT_RECEIVED);
+        event.addEventInput(ServiceEvent.EventInput.CALL_ID, callId);
+        event.addEventInput(ServiceEvent.EventInput.STATS, stats);
+        mService.notifyObservers(event);
+    }
+
+    @Test
+    public void benchmarkEventStorms() {
+        MicroBenchmark benchmark = new MicroBenchmark(WARMUP_ITERATIONS, MEASURE_ITERATIONS, OPERATIONS);
+        // statuses above 127 are not cached by Integer.valueOf
+        benchmark.measure("newBuddyNotification, HashMap event", () ->
+                legacyBuddyNotification("account", "buddy", 1000 + (mStatus++ & 0xff), "online"));
+        benchmark.measure("newBuddyNotification, array event", () ->
+                newBuddyNotification("account", "buddy", 1000 + (mStatus++ & 0xff), "online"));
+        benchmark.measure("onRtcpReportReceived, HashMap event", () -> legacyRtcpReport("call", mStats));
+        benchmark.measure("onRtcpReportReceived, array event", () -> rtcpReport("call", mStats));
+
+        assertEquals(mObserver1.mSum, mObserver2.mSum);
+        assertTrue(mObserver1.mSum > 0);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceEventTest {
+
+    @Test
+    public void testPrimitiveInputs() {
+        ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.VIDEO_EVENT);
+        event.addEventInput(ServiceEvent.EventInput.VIDEO_WIDTH, 1280);
+        event.addEventInput(ServiceEvent.EventInput.VIDEO_STARTED, true);
+        event.addEventInput(ServiceEvent.EventInput.TIME, 42L);
+        event.addEventInput(ServiceEvent.EventInput.VIDEO_CALL, "callId");
+        event.addEventInput(ServiceEvent.EventInput.VIDEO_WIDTH, 1920);
+
+        assertEquals(1920, event.getInt(ServiceEvent.EventInput.VIDEO_WIDTH, 0));
+        assertEquals(Integer.valueOf(1920), event.getEventInput(ServiceEvent.EventInput.VIDEO_WIDTH, Integer.class));
+        assertNull(event.getEventInput(ServiceEvent.EventInput.VIDEO_WIDTH, Long.class));
+        assertTrue(event.getBoolean(ServiceEvent.EventInput.VIDEO_STARTED, false));
+        assertEquals(Boolean.TRUE, event.getEventInput(ServiceEvent.EventInput.VIDEO_STARTED, Boolean.class, false));
+        assertEquals(42L, event.getLong(ServiceEvent.EventInput.TIME, 0));
+        assertEquals("callId", event.getString(ServiceEvent.EventInput.VIDEO_CALL));
+        assertEquals(7, event.getInt(ServiceEvent.EventInput.VIDEO_HEIGHT, 7));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CameraCapabilityCacheTest {
+
+    private static final String DEVICE = "device/build:1";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        TestLogService.install();
+        mFile = File.createTempFile("camera_capabilities", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static CameraCapabilityCache.Capabilities capabilities(int facing) {
+        return new CameraCapabilityCache.Capabilities(facing, 270, new int[]{17, 842094169},
+                new int[]{1280, 720, 640, 480, 320, 240}, new int[]{15000, 30000, 30000, 30000});
+    }
+
+    @Test
+    public void testPersistedAcrossLaunches() {
+        CameraCapabilityCache cache = new CameraCapabilityCache(mFile, DEVICE);
+        assertNull(cache.get("0"));
+        cache.put("0", capabilities(1));
+        cache.put("1", capabilities(0));
+        cache.save();
+
+        CameraCapabilityCache loaded = new CameraCapabilityCache(mFile, DEVICE);
+        assertEquals(2, loaded.size());
+        CameraCapabilityCache.Capabilities front = loaded.get("0");
+        assertNotNull(front);
+        assertEquals(1, front.getFacing());
+        assertEquals(270, front.getOrientation());
+        assertArrayEquals(capabilities(1).getFormats(), front.getFormats());
+        assertArrayEquals(capabilities(1).getSizes(), front.getSizes());
+        assertArrayEquals(capabilities(1).getFpsRanges(), front.getFpsRanges());
+
+        // a camera removed
+        loaded.retain(Collections.singletonList("0"));
+        loaded.save();
+        assertEquals(1, new CameraCapabilityCache(mFile, DEVICE).size());
+    }
+
+    @Test
+    public void testOtherDeviceBuildIgnored() {
+        CameraCapabilityCache cache = new CameraCapabilityCache(mFile, DEVICE);
+        cache.put("0", capabilities(1));
+        cache.save();
+
+        CameraCapabilityCache updated = new CameraCapabilityCache(mFile, "device/build:2");
+        assertEquals(0, updated.size());
+        assertNull(updated.get("0"));
+    }
+}
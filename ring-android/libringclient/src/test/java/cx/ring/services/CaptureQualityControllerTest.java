@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureQualityControllerTest {
+
+    // RTCP report interval
+    private static final long REPORT_MS = 5000;
+
+    private final CaptureQualityController mController = new CaptureQualityController();
+    private long mNow = 0;
+
+    private int report(int packetLoss, int jitter) {
+        mNow += REPORT_MS;
+        return mController.onReport("call", packetLoss, jitter, mNow);
+    }
+
+    @Test
+    public void testStepDownAndUpWithHysteresis() {
+        // a single bad report is ignored
+        assertEquals(0, report(10, 5));
+        assertEquals(0, report(0, 5));
+        assertEquals(0, report(10, 5));
+        assertEquals(1, report(0, 100));
+
+        // down to the lowest level, not below
+        for (int i = 0; i < 20; i++) {
+            report(20, 100);
+        }
+        assertEquals(CaptureQualityController.MAX_LEVEL, mController.getLevel());
+
+        // reports between the thresholds keep the level
+        for (int i = 0; i < 20; i++) {
+            assertEquals(CaptureQualityController.MAX_LEVEL, report(3, 30));
+        }
+
+        // one level up after a series of good reports
+        for (int i = 1; i < CaptureQualityController.GOOD_REPORTS_TO_STEP_UP; i++) {
+            assertEquals(CaptureQualityController.MAX_LEVEL, report(0, 5));
+        }
+        assertEquals(CaptureQualityController.MAX_LEVEL - 1, report(0, 5));
+
+        // a bad report interrupts the series
+        for (int i = 1; i < CaptureQualityController.GOOD_REPORTS_TO_STEP_UP; i++) {
+            report(0, 5);
+        }
+        report(10, 5);
+        assertEquals(CaptureQualityController.MAX_LEVEL - 1, report(0, 5));
+
+        mController.reset();
+        assertEquals(0, mController.getLevel());
+    }
+
+    @Test
+    public void testStepUpWaitsAfterChange() {
+        mController.onReport("call", 10, 0, 0);
+        assertEquals(1, mController.onReport("call", 10, 0, 100));
+        // good reports in quick succession
+        long time = 100;
+        for (int i = 0; i < 2 * CaptureQualityController.GOOD_REPORTS_TO_STEP_UP; i++) {
+            time += 100;
+            assertEquals(1, mController.onReport("call", 0, 0, time));
+        }
+        assertEquals(0, mController.onReport("call", 0, 0, 100 + CaptureQualityController.STEP_UP_DELAY_MS));
+    }
+
+    @Test
+    public void testWorstCall() {
+        // a conference with a good link and a bad link: the reports interleave
+        for (int i = 0; i < 4; i++) {
+            mNow += REPORT_MS;
+            mController.onReport("good", 0, 5, mNow);
+            mController.onReport("bad", 10, 100, mNow);
+        }
+        assertEquals(2, mController.getLevel());
+
+        // the capture goes back up once the bad call ends
+        assertEquals(0, mController.removeCall("bad"));
+        assertEquals(0, mController.removeCall("unknown"));
+    }
+
+    @Test
+    public void testLevels() {
+        assertEquals(30000, CaptureQualityController.getFrameRate(0, 30000));
+        assertEquals(22500, CaptureQualityController.getFrameRate(1, 30000));
+        assertEquals(10000, CaptureQualityController.getFrameRate(CaptureQualityController.MAX_LEVEL, 30000));
+    }
+
+    @Test
+    public void testFrameRateLimiter() {
+        FrameRateLimiter limiter = new FrameRateLimiter();
+        // camera at 30 FPS, with some jitter
+        long interval = TimeUnit.SECONDS.toNanos(1) / 30;
+        assertEquals(30, keptFrames(limiter, interval));
+
+        limiter.setMaxFrameRate(CaptureQualityController.getFrameRate(2, 30000));
+        assertEquals(15, keptFrames(limiter, interval));
+        limiter.setMaxFrameRate(CaptureQualityController.getFrameRate(1, 30000));
+        int kept = keptFrames(limiter, interval);
+        assertTrue("kept " + kept, kept >= 20 && kept <= 23);
+
+        // a limit above the camera rate keeps all the frames
+        limiter.setMaxFrameRate(60000);
+        assertEquals(30, keptFrames(limiter, interval));
+    }
+
+    /**
+     * @return the number of frames kept out of one second of frames
+     */
+    private static int keptFrames(FrameRateLimiter limiter, long interval) {
+        int kept = 0;
+        for (int i = 0; i < 30; i++) {
+            long jitter = (i % 3 - 1) * interval / 10;
+            if (limiter.accept(TimeUnit.SECONDS.toNanos(10) + i * interval + jitter)) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+}
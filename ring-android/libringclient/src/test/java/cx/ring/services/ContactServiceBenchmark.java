@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import cx.ring.model.CallContact;
+import cx.ring.model.Settings;
+import cx.ring.model.Uri;
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Contact lookups while parsing the history: 5000 contacts, 200000 history rows.
+ * The previous linear scan is measured on a sample of the rows, as a reference.
+ */
+public class ContactServiceBenchmark {
+
+    private static final int CONTACTS = 5000;
+    private static final int HISTORY_ROWS = 200000;
+    private static final int UNKNOWN_NUMBERS = 500;
+    private static final int LEGACY_SAMPLE = 500;
+
+    private static class TestPreferencesService extends PreferencesService {
+        TestPreferencesService() {
+            mUserSettings = new Settings();
+        }
+
+        @Override
+        public void saveSettings(Settings settings) {
+            mUserSettings = settings;
+        }
+
+        @Override
+        public Settings loadSettings() {
+            return mUserSettings;
+        }
+
+        @Override
+        public boolean hasNetworkConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isPushAllowed() {
+            return false;
+        }
+
+        @Override
+        public void saveRequestPreferences(String accountId, String contactId) {
+        }
+
+        @Override
+        public Set<String> loadRequestsPreferences(String accountId) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void removeRequestPreferences(String accountId, String contactId) {
+        }
+    }
+
+    private static class TestContactService extends ContactService {
+        @Override
+        public Map<Long, CallContact> loadContactsFromSystem(boolean loadRingContacts, boolean loadSipContacts) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        protected CallContact findContactByIdFromSystem(Long contactId, String contactKey) {
+            return null;
+        }
+
+        @Override
+        protected CallContact findContactBySipNumberFromSystem(String number) {
+            return null;
+        }
+
+        @Override
+        protected CallContact findContactByNumberFromSystem(String number) {
+            return null;
+        }
+
+        @Override
+        public void loadContactData(CallContact callContact) {
+        }
+
+        @Override
+        public void saveVCardContactData(CallContact contact) {
+        }
+
+        @Override
+        public void loadVCardContactData(CallContact contact) {
+        }
+    }
+
+    private static String ringId(int i) {
+        return String.format("%040x", 0x10000000L + i);
+    }
+
+    private static String sipNumber(int i) {
+        return "sip:user" + i + "@sip.example.com";
+    }
+
+    @Test
+    public void benchmarkHistoryLookups() {
+        TestLogService.install();
+        TestContactService contactService = new TestContactService();
+        contactService.mPreferencesService = new TestPreferencesService();
+
+        List<CallContact> contacts = new ArrayList<>(CONTACTS);
+        for (int i = 0; i < CONTACTS; i++) {
+            // half Ring contacts, half SIP contacts with a second number
+            CallContact contact;
+            if (i % 2 == 0) {
+                contact = CallContact.buildUnknown(new Uri(Uri.RING_URI_SCHEME + ringId(i)));
+            } else {
+                contact = CallContact.buildUnknown(new Uri(sipNumber(i)));
+                contact.addPhoneNumber(new Uri("tel" + i + "@pbx.example.com"));
+            }
+            contacts.add(contact);
+            contactService.addContact(contact);
+        }
+
+        Random random = new Random(42);
+        List<String> rows = new ArrayList<>(HISTORY_ROWS);
+        for (int i = 0; i < HISTORY_ROWS; i++) {
+            int n = random.nextInt(CONTACTS + UNKNOWN_NUMBERS);
+            if (n >= CONTACTS) {
+                rows.add(sipNumber(CONTACTS + n));
+            } else if (n % 2 == 0) {
+                rows.add(Uri.RING_URI_SCHEME + ringId(n));
+            } else {
+                rows.add(random.nextBoolean() ? sipNumber(n) : "tel" + n + "@pbx.example.com");
+            }
+        }
+
+        // previous implementation: linear scan of the contacts on each lookup
+        long start = System.nanoTime();
+        for (int i = 0; i < LEGACY_SAMPLE; i++) {
+            Uri uri = new Uri(rows.get(i));
+            for (CallContact c : contacts) {
+                if (c.hasNumber(uri.getRawUriString())) {
+                    break;
+                }
+            }
+        }
+        double legacyNsPerRow = (double) (System.nanoTime() - start) / LEGACY_SAMPLE;
+
+        start = System.nanoTime();
+        for (String row : rows) {
+            contactService.findContactByNumber(row);
+        }
+        double indexedNsPerRow = (double) (System.nanoTime() - start) / HISTORY_ROWS;
+
+        System.out.println(String.format("%d contacts x %d rows: linear scan %.1f ms (extrapolated from %d rows), index %.1f ms",
+                CONTACTS, HISTORY_ROWS, legacyNsPerRow * HISTORY_ROWS / 1e6, LEGACY_SAMPLE, indexedNsPerRow * HISTORY_ROWS / 1e6));
+
+        // every number resolves to its contact
+        for (int i = 0; i < CONTACTS; i++) {
+            CallContact contact = contacts.get(i);
+            String number = i % 2 == 0 ? Uri.RING_URI_SCHEME + ringId(i) : "tel" + i + "@pbx.example.com";
+            assertSame(contact, contactService.findContactByNumber(number));
+        }
+        // unknown numbers are cached as unknown contacts
+        CallContact unknown = contactService.findContactByNumber(sipNumber(CONTACTS * 3));
+        assertSame(unknown, contactService.findContactByNumber(sipNumber(CONTACTS * 3)));
+        assertEquals(CallContact.UNKNOWN_ID, unknown.getId());
+    }
+}
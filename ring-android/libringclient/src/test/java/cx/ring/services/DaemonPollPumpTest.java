@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DaemonPollPumpTest {
+
+    private static final DaemonPollPump.Policy POLICY = DaemonPollPump.Policy.adaptive(10, 80);
+
+    /**
+     * Records the requested delays, and runs the scheduled poll requests right away
+     */
+    private static class ImmediateScheduler extends ScheduledThreadPoolExecutor {
+        final List<Long> mDelays = new CopyOnWriteArrayList<>();
+
+        ImmediateScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            mDelays.add(unit.toMillis(delay));
+            return super.schedule(command, 0, unit);
+        }
+    }
+
+    /**
+     * Daemon executor whose tasks are run by the test
+     */
+    private static class ManualExecutor extends AbstractExecutorService {
+        final LinkedBlockingQueue<Runnable> mTasks = new LinkedBlockingQueue<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runNext() throws InterruptedException {
+            Runnable task = mTasks.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no poll requested", task);
+            task.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return null;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private final ImmediateScheduler mScheduler = new ImmediateScheduler();
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final AtomicInteger mPolls = new AtomicInteger();
+    private DaemonPollPump mPump;
+
+    @Before
+    public void setUp() {
+        TestLogService.install();
+        mPump = new DaemonPollPump(mScheduler, mExecutor, mPolls::incrementAndGet, POLICY);
+    }
+
+    @After
+    public void tearDown() {
+        mPump.stop();
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void testIdleBackoffAndReset() throws Exception {
+        mPump.start();
+        // idle: the interval doubles up to the maximum
+        long[] expected = {20, 40, 80, 80};
+        for (long interval : expected) {
+            mExecutor.runNext();
+            assertEquals(interval, mPump.getCurrentInterval());
+        }
+
+        // an event from the daemon resets the interval
+        mPump.onActivity();
+        mExecutor.runNext();
+        assertEquals(POLICY.getMinInterval(), mPump.getCurrentInterval());
+        mExecutor.runNext();
+        assertEquals(20, mPump.getCurrentInterval());
+
+        // active sessions keep the minimum interval
+        mPump.setActive(true);
+        for (int i = 0; i < 3; i++) {
+            mExecutor.runNext();
+            assertEquals(POLICY.getMinInterval(), mPump.getCurrentInterval());
+        }
+        mPump.setActive(false);
+        mExecutor.runNext();
+        assertEquals(20, mPump.getCurrentInterval());
+        assertTrue(mScheduler.mDelays.contains(80L));
+        assertEquals(mPolls.get(), mPump.getPollCount());
+    }
+
+    @Test
+    public void testWakeUpAndCollapsedRequests() throws Exception {
+        mPump.start();
+        for (int i = 0; i < 3; i++) {
+            mExecutor.runNext();
+        }
+        assertEquals(80, mPump.getCurrentInterval());
+
+        // a user action polls right away, at the minimum interval
+        mPump.wakeUp();
+        assertEquals(POLICY.getMinInterval(), mPump.getCurrentInterval());
+        assertEquals(Long.valueOf(0), mScheduler.mDelays.get(mScheduler.mDelays.size() - 1));
+
+        // the poll is waiting in the executor: more requests are collapsed into it
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mExecutor.mTasks.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        mPump.wakeUp();
+        mPump.wakeUp();
+        while (mPump.getCollapsedPollCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(mPump.getCollapsedPollCount() >= 1);
+        assertEquals(1, mExecutor.mTasks.size());
+
+        mExecutor.runNext();
+        assertEquals(4, mPolls.get());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import cx.ring.model.DataTransfer;
+import cx.ring.model.HistoryCall;
+import cx.ring.model.HistoryPage;
+import cx.ring.model.HistoryText;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryPageTest {
+
+    /**
+     * In memory history table, rows sorted newest first
+     */
+    private static abstract class ListTable<T> implements HistoryService.HistoryTable<T> {
+        final List<T> mRows = new ArrayList<>();
+
+        @Override
+        public List<T> queryBefore(long before, long limit) {
+            List<T> rows = new ArrayList<>();
+            for (T row : mRows) {
+                if (rows.size() == limit) {
+                    break;
+                }
+                if (getTimestamp(row) < before) {
+                    rows.add(row);
+                }
+            }
+            return rows;
+        }
+
+        @Override
+        public List<T> queryAt(long timestamp) {
+            List<T> rows = new ArrayList<>();
+            for (T row : mRows) {
+                if (getTimestamp(row) == timestamp) {
+                    rows.add(row);
+                }
+            }
+            return rows;
+        }
+    }
+
+    private static class CallTable extends ListTable<HistoryCall> {
+        CallTable(long... timestamps) {
+            for (long timestamp : timestamps) {
+                HistoryCall call = new HistoryCall();
+                call.call_start = timestamp;
+                mRows.add(call);
+            }
+        }
+
+        @Override
+        public long getTimestamp(HistoryCall call) {
+            return call.call_start;
+        }
+    }
+
+    private static class TextTable extends ListTable<HistoryText> {
+        TextTable(long... timestamps) {
+            for (long timestamp : timestamps) {
+                HistoryText text = new HistoryText();
+                text.time = timestamp;
+                mRows.add(text);
+            }
+        }
+
+        @Override
+        public long getTimestamp(HistoryText text) {
+            return text.time;
+        }
+    }
+
+    private static class TransferTable extends ListTable<DataTransfer> {
+        @Override
+        public long getTimestamp(DataTransfer transfer) {
+            return transfer.getTimestamp();
+        }
+    }
+
+    @Test
+    public void testDuplicateTimestampsAtPageBoundary() throws Exception {
+        // the page ends on a timestamp shared by more rows than fetched from the call table
+        CallTable calls = new CallTable(50, 40, 30, 30, 30, 30, 20, 10);
+        TextTable texts = new TextTable(45, 30, 5);
+        TransferTable transfers = new TransferTable();
+
+        // rows are compared by identity, the test rows have no id
+        Set<HistoryCall> seenCalls = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<HistoryText> seenTexts = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Long> cursors = new ArrayList<>();
+        long before = Long.MAX_VALUE;
+        boolean hasMore = true;
+        while (hasMore) {
+            HistoryPage page = HistoryService.getHistoryPage(calls, texts, transfers, before, 3);
+            for (HistoryCall call : page.getCalls()) {
+                assertTrue("row returned twice", seenCalls.add(call));
+            }
+            for (HistoryText text : page.getTexts()) {
+                assertTrue("row returned twice", seenTexts.add(text));
+            }
+            assertTrue(page.getOldestTimestamp() < before);
+            before = page.getOldestTimestamp();
+            cursors.add(before);
+            hasMore = page.hasMore();
+        }
+
+        assertEquals(8, seenCalls.size());
+        assertEquals(3, seenTexts.size());
+        assertEquals(40L, (long) cursors.get(0));
+        // all the rows at 30 are in the same page, the next one starts below
+        assertEquals(30L, (long) cursors.get(1));
+        assertEquals(5L, (long) cursors.get(2));
+        assertEquals(3, cursors.size());
+    }
+
+    @Test
+    public void testPageOrder() throws Exception {
+        HistoryPage page = HistoryService.getHistoryPage(new CallTable(50, 40, 30), new TextTable(45, 35), new TransferTable(), Long.MAX_VALUE, 3);
+        assertEquals(40, page.getOldestTimestamp());
+        assertTrue(page.hasMore());
+        // rows are returned oldest first
+        List<Long> timestamps = new ArrayList<>();
+        for (HistoryCall call : page.getCalls()) {
+            timestamps.add(call.call_start);
+        }
+        List<Long> sorted = new ArrayList<>(timestamps);
+        Collections.sort(sorted);
+        assertEquals(sorted, timestamps);
+        assertEquals(1, page.getTexts().size());
+
+        HistoryPage empty = HistoryService.getHistoryPage(new CallTable(), new TextTable(), new TransferTable(), Long.MAX_VALUE, 3);
+        assertFalse(empty.hasMore());
+    }
+}
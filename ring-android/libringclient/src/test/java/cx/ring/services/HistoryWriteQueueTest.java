@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HistoryWriteQueueTest {
+
+    private static final int BATCH_SIZE = 4;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    // the rows of the fake database, the ones written by a failed transaction are rolled back
+    private final List<Integer> mRows = new CopyOnWriteArrayList<>();
+    private final AtomicInteger mTransactions = new AtomicInteger();
+    private HistoryWriteQueue mQueue;
+
+    @Before
+    public void setUp() {
+        TestLogService.install();
+        mQueue = new HistoryWriteQueue(mExecutor, transaction -> {
+            int size = mRows.size();
+            try {
+                transaction.call();
+                mTransactions.incrementAndGet();
+            } catch (Exception e) {
+                while (mRows.size() > size) {
+                    mRows.remove(mRows.size() - 1);
+                }
+                throw e;
+            }
+        }, 100, BATCH_SIZE, 100);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    private Future<Integer> insert(int row) {
+        return mQueue.enqueue(() -> {
+            if (row < 0) {
+                throw new SQLException("constraint failed");
+            }
+            mRows.add(row);
+            return row;
+        });
+    }
+
+    @Test
+    public void testWritesAreBatched() throws Exception {
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(insert(i));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(Integer.valueOf(i), futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), mRows);
+        // at most BATCH_SIZE writes per transaction
+        assertTrue("commits: " + mQueue.getCommitCount(), mQueue.getCommitCount() >= 3 && mQueue.getCommitCount() < 10);
+        assertEquals(10, mQueue.getCommittedWrites());
+        assertEquals(0, mQueue.getFailedWrites());
+    }
+
+    @Test
+    public void testFailedWriteRetriedOneByOne() throws Exception {
+        Future<Integer> first = insert(1);
+        Future<Integer> failed = insert(-1);
+        Future<Integer> last = insert(2);
+
+        assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(2), last.get(5, TimeUnit.SECONDS));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("the write should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        // the other writes of the rolled back transaction are committed
+        assertEquals(Arrays.asList(1, 2), mRows);
+        assertEquals(1, mQueue.getFailedWrites());
+    }
+
+    @Test
+    public void testCommitListener() throws Exception {
+        List<Integer> committed = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final int row = i == 3 ? -1 : i;
+            mQueue.enqueue(() -> {
+                if (row < 0) {
+                    throw new SQLException("constraint failed");
+                }
+                mRows.add(row);
+                return row;
+            }, committed::add);
+        }
+        mQueue.awaitPendingWrites();
+        // in the order of the writes, not for the failed one
+        assertEquals(Arrays.asList(0, 1, 2, 4, 5), committed);
+    }
+
+    @Test
+    public void testAwaitPendingWrites() throws Exception {
+        // nothing to wait for
+        mQueue.awaitPendingWrites();
+        assertEquals(0, mTransactions.get());
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final int row = i;
+            futures.add(mQueue.enqueue(() -> {
+                Thread.sleep(10);
+                mRows.add(row);
+                return row;
+            }));
+        }
+        mQueue.awaitPendingWrites();
+        for (Future<Integer> future : futures) {
+            assertTrue(future.isDone());
+        }
+        assertEquals(6, mRows.size());
+        assertEquals(0, mQueue.getQueueDepth());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NameLookupCacheTest {
+
+    private static final String ACCOUNT = "account";
+
+    private ScheduledExecutorService mScheduler;
+    private File mFile;
+    private final List<String> mSent = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        TestLogService.install();
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mFile = File.createTempFile("name_lookup_cache", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+        mFile.delete();
+    }
+
+    private NameLookupCache newCache() {
+        return new NameLookupCache(mScheduler, mFile, (accountId, nameserver, address) -> mSent.add(address));
+    }
+
+    private NameLookupCache loadCache() throws Exception {
+        NameLookupCache cache = newCache();
+        cache.load();
+        awaitScheduler();
+        return cache;
+    }
+
+    private static String address(int i) {
+        return String.format("%040x", i);
+    }
+
+    private void awaitScheduler() throws Exception {
+        mScheduler.submit(() -> null).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDeduplicationAndRate() throws Exception {
+        NameLookupCache cache = newCache();
+        int lookups = NameLookupCache.LOOKUPS_PER_PERIOD * 3;
+        for (int i = 0; i < lookups; i++) {
+            assertNull(cache.lookupAddress(ACCOUNT, "", address(i)));
+            // same lookup from another caller
+            assertNull(cache.lookupAddress(ACCOUNT, "", address(i)));
+        }
+        assertEquals(lookups, cache.getDuplicateCount());
+
+        // first drain: at most one batch sent
+        awaitScheduler();
+        assertTrue(mSent.size() <= NameLookupCache.LOOKUPS_PER_PERIOD);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mSent.size() < lookups && System.currentTimeMillis() < deadline) {
+            Thread.sleep(NameLookupCache.DRAIN_PERIOD_MS);
+        }
+        assertEquals(lookups, mSent.size());
+        assertEquals(0, cache.getQueueDepth());
+    }
+
+    @Test
+    public void testResolutionsArePersisted() throws Exception {
+        NameLookupCache cache = loadCache();
+        cache.lookupAddress(ACCOUNT, "", address(1));
+        cache.onLookupResult(ACCOUNT, NameLookupCache.STATE_FOUND, address(1), "alice");
+        cache.onLookupResult(ACCOUNT, NameLookupCache.STATE_NOT_FOUND, address(2), "");
+        // errors are not cached
+        cache.onLookupResult(ACCOUNT, 3, address(3), "");
+
+        NameLookupCache.Resolution resolution = cache.lookupAddress(ACCOUNT, "", address(1));
+        assertNotNull(resolution);
+        assertEquals("alice", resolution.getName());
+        assertEquals(1, cache.getHitCount());
+        // other accounts have their own resolutions
+        assertNull(cache.get("other", address(1)));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!mFile.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        NameLookupCache reloaded = newCache();
+        // not read until loaded
+        assertNull(reloaded.get(ACCOUNT, address(1)));
+        reloaded.load();
+        awaitScheduler();
+        assertEquals("alice", reloaded.get(ACCOUNT, address(1)).getName());
+        assertEquals(NameLookupCache.STATE_NOT_FOUND, reloaded.get(ACCOUNT, address(2)).getState());
+        assertNull(reloaded.get(ACCOUNT, address(3)));
+        assertEquals(2, reloaded.size());
+
+        reloaded.clear(ACCOUNT);
+        assertEquals(0, reloaded.size());
+
+        // results received and accounts cleared before the file is read are kept
+        NameLookupCache early = newCache();
+        early.onLookupResult(ACCOUNT, NameLookupCache.STATE_FOUND, address(1), "alice2");
+        early.clear("other");
+        early.load();
+        awaitScheduler();
+        assertEquals("alice2", early.get(ACCOUNT, address(1)).getName());
+        assertEquals(NameLookupCache.STATE_NOT_FOUND, early.get(ACCOUNT, address(2)).getState());
+    }
+}
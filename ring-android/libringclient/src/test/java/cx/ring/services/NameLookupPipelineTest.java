@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertEquals;
+
+public class NameLookupPipelineTest {
+
+    private static final String ACCOUNT = "account";
+
+    private ScheduledExecutorService mScheduler;
+    private NameLookupPipeline mPipeline;
+    private final List<String> mSent = new CopyOnWriteArrayList<>();
+    private final List<String> mResults = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        TestLogService.install();
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mPipeline = new NameLookupPipeline(mScheduler, new NameLookupPipeline.Resolver() {
+            @Override
+            public void lookupName(String accountId, String nameserver, String name) {
+                mSent.add(name);
+            }
+
+            @Override
+            public void onResult(String accountId, int state, String address, String name) {
+                mResults.add(name + ":" + state);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    private void awaitDebounce() throws InterruptedException {
+        Thread.sleep(NameLookupPipeline.MAX_DEBOUNCE_MS * 2);
+    }
+
+    @Test
+    public void testTypingSupersedesLookups() throws Exception {
+        NameLookupPipeline.Session session = mPipeline.newSession(ACCOUNT);
+        String name = "alice";
+        for (int i = 1; i <= name.length(); i++) {
+            session.lookup(name.substring(0, i));
+        }
+        awaitDebounce();
+        assertEquals(1, mSent.size());
+        assertEquals(name, mSent.get(0));
+        assertEquals(name.length() - 1, mPipeline.getCanceledCount());
+    }
+
+    @Test
+    public void testSkippedLookups() throws Exception {
+        NameLookupPipeline.Session session = mPipeline.newSession(ACCOUNT);
+        NameLookupPipeline.Session other = mPipeline.newSession(ACCOUNT);
+
+        // invalid names are answered locally
+        session.lookup("bob smith");
+        awaitDebounce();
+        assertEquals(0, mSent.size());
+        assertEquals("bob smith:" + NameLookupCache.STATE_INVALID, mResults.get(0));
+
+        // the same name looked up from two fields is sent once
+        session.lookup("bob");
+        other.lookup("bob");
+        awaitDebounce();
+        assertEquals(1, mSent.size());
+        assertEquals(1, mPipeline.getDuplicateCount());
+
+        // a resolved name is answered locally
+        mPipeline.onLookupResult(ACCOUNT, NameLookupCache.STATE_FOUND, "address", "bob");
+        session.lookup("bob");
+        awaitDebounce();
+        assertEquals(1, mSent.size());
+        assertEquals("bob:" + NameLookupCache.STATE_FOUND, mResults.get(1));
+        assertEquals(1, mPipeline.getCachedCount());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewBufferPoolTest {
+
+    private static final long FRAME_NS = TimeUnit.SECONDS.toNanos(1) / 30;
+
+    // buffers owned by the camera
+    private final ArrayDeque<byte[]> mCamera = new ArrayDeque<>();
+
+    @Test
+    public void testBuffersFollowFramesInFlight() {
+        PreviewBufferPool pool = new PreviewBufferPool(16, 30, mCamera::add);
+        pool.start();
+        assertEquals(PreviewBufferPool.MIN_BUFFERS, mCamera.size());
+
+        // frames copied within a frame interval
+        long now = 0;
+        for (int i = 0; i < 100; i++) {
+            byte[] buffer = mCamera.poll();
+            pool.onFrame(buffer, now);
+            pool.recycle(buffer, now + FRAME_NS / 2);
+            now += FRAME_NS;
+        }
+        assertEquals(PreviewBufferPool.MIN_BUFFERS, pool.getBufferCount());
+        assertEquals(30, Math.round(pool.getFrameRate()));
+
+        // frames copied in four frame intervals: more buffers in flight
+        ArrayDeque<byte[]> inFlight = new ArrayDeque<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] buffer = mCamera.poll();
+            if (buffer != null) {
+                pool.onFrame(buffer, now);
+                inFlight.add(buffer);
+            }
+            if (inFlight.size() > 4 || (buffer == null && !inFlight.isEmpty())) {
+                pool.recycle(inFlight.poll(), now);
+            }
+            now += FRAME_NS;
+        }
+        assertTrue(pool.getBufferCount() > PreviewBufferPool.MIN_BUFFERS);
+        assertTrue(pool.getBufferCount() <= PreviewBufferPool.MAX_BUFFERS);
+        // every buffer is either with the camera or in flight
+        assertEquals(pool.getBufferCount(), mCamera.size() + inFlight.size());
+    }
+
+    @Test
+    public void testClosedPoolKeepsBuffers() {
+        PreviewBufferPool pool = new PreviewBufferPool(16, 30, mCamera::add);
+        pool.start();
+        byte[] buffer = mCamera.poll();
+        pool.onFrame(buffer, 0);
+        pool.close();
+        pool.recycle(buffer, FRAME_NS);
+        assertEquals(PreviewBufferPool.MIN_BUFFERS - 1, mCamera.size());
+
+        // a frame recycled twice is given back once
+        PreviewBufferPool other = new PreviewBufferPool(16, 30, mCamera::add);
+        mCamera.clear();
+        other.start();
+        buffer = mCamera.poll();
+        other.onFrame(buffer, 0);
+        other.recycle(buffer, FRAME_NS);
+        other.recycle(buffer, FRAME_NS);
+        assertEquals(PreviewBufferPool.MIN_BUFFERS, mCamera.size());
+    }
+}
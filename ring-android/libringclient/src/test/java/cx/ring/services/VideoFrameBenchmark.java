@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import cx.ring.utils.MicroBenchmark;
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput of the camera frame path of {@link HardwareService}: preview buffers from a {@link PreviewBufferPool},
+ * sent by a {@link VideoFramePipeline} to a simulated native copy of a 640x480 NV21 frame into a direct buffer.
+ * <p>
+ * Also compares the latency of a daemon operation while frames stream through the shared daemon executor,
+ * as previously done, and through the pipeline.
+ */
+public class VideoFrameBenchmark {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    // NV21: 12 bits per pixel
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+
+    // native frame of the daemon
+    private final ByteBuffer mNativeFrame = ByteBuffer.allocateDirect(FRAME_SIZE);
+    // buffers given to the simulated camera
+    private final ArrayBlockingQueue<byte[]> mCamera = new ArrayBlockingQueue<>(PreviewBufferPool.MAX_BUFFERS);
+    private VideoFramePipeline mPipeline;
+    private ExecutorService mDaemonExecutor;
+
+    @Before
+    public void setUp() {
+        TestLogService.install();
+        mPipeline = new VideoFramePipeline(VideoFramePipeline.DEFAULT_QUEUE_SIZE, (data, width, height, rotation) -> copyFrame(data));
+        mDaemonExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mPipeline.stop();
+        mDaemonExecutor.shutdownNow();
+    }
+
+    private void copyFrame(byte[] data) {
+        mNativeFrame.clear();
+        mNativeFrame.put(data);
+    }
+
+    private byte[] nextCameraFrame() {
+        try {
+            return mCamera.take();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void benchmarkFrameThroughput() {
+        final PreviewBufferPool pool = new PreviewBufferPool(FRAME_SIZE, 30, mCamera::add);
+        pool.start();
+
+        // frames delivered as fast as the buffers come back
+        MicroBenchmark benchmark = new MicroBenchmark(2, 5, 500);
+        MicroBenchmark.Result result = benchmark.measure("frame " + WIDTH + "x" + HEIGHT + " through pipeline", () -> {
+            byte[] data = nextCameraFrame();
+            pool.onFrame(data);
+            mPipeline.offer(data, WIDTH, HEIGHT, 0, pool);
+        });
+        System.out.println(String.format("%.0f frames/s, %d sent, %d dropped, latency avg %d us, max %d us, %d buffers",
+                1e9 / result.nsPerOp, mPipeline.getSentCount(), mPipeline.getDroppedCount(),
+                TimeUnit.NANOSECONDS.toMicros(mPipeline.getAverageLatencyNs()),
+                TimeUnit.NANOSECONDS.toMicros(mPipeline.getMaxLatencyNs()), pool.getBufferCount()));
+
+        mPipeline.stop();
+        pool.close();
+        // the frame being sent when stopping
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mPipeline.getSentCount() + mPipeline.getDroppedCount() < benchmark.getTotalOperations()
+                && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(benchmark.getTotalOperations(), mPipeline.getSentCount() + mPipeline.getDroppedCount());
+        assertTrue(pool.getBufferCount() <= PreviewBufferPool.MAX_BUFFERS);
+    }
+
+    /**
+     * @return the average delay before a daemon operation runs on the executor, while 30 fps frames are sent
+     */
+    private long measureDaemonLatency(boolean framesOnExecutor) throws Exception {
+        mCamera.clear();
+        final PreviewBufferPool pool = new PreviewBufferPool(FRAME_SIZE, 30, mCamera::add);
+        pool.start();
+        long frameInterval = TimeUnit.SECONDS.toNanos(1) / 30;
+        long totalLatency = 0;
+        int operations = 0;
+        for (int i = 0; i < 90; i++) {
+            long frameStart = System.nanoTime();
+            final byte[] data = nextCameraFrame();
+            pool.onFrame(data);
+            if (framesOnExecutor) {
+                mDaemonExecutor.submit(() -> {
+                    copyFrame(data);
+                    pool.recycle(data);
+                    return true;
+                });
+            } else {
+                mPipeline.offer(data, WIDTH, HEIGHT, 0, pool);
+            }
+            if (i % 10 == 0) {
+                final long submitted = System.nanoTime();
+                Future<Long> operation = mDaemonExecutor.submit(() -> System.nanoTime() - submitted);
+                totalLatency += operation.get();
+                operations++;
+            }
+            long remaining = frameInterval - (System.nanoTime() - frameStart);
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            }
+        }
+        pool.close();
+        return totalLatency / operations;
+    }
+
+    @Test
+    public void benchmarkDaemonLatency() throws Exception {
+        long shared = measureDaemonLatency(true);
+        long pipeline = measureDaemonLatency(false);
+        System.out.println(String.format("daemon operation latency at 30 fps: frames on daemon executor %d us, frames on pipeline %d us",
+                TimeUnit.NANOSECONDS.toMicros(shared), TimeUnit.NANOSECONDS.toMicros(pipeline)));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cx.ring.utils.TestLogService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VideoFramePipelineTest {
+
+    private final List<Integer> mSent = new CopyOnWriteArrayList<>();
+    private final CountDownLatch mSenderBlocked = new CountDownLatch(1);
+    private final CountDownLatch mUnblockSender = new CountDownLatch(1);
+    private VideoFramePipeline mPipeline;
+
+    @Before
+    public void setUp() {
+        TestLogService.install();
+        mPipeline = new VideoFramePipeline(2, (data, width, height, rotation) -> {
+            mSenderBlocked.countDown();
+            try {
+                mUnblockSender.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mSent.add((int) data[0]);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mUnblockSender.countDown();
+        mPipeline.stop();
+    }
+
+    private void offer(int frame) {
+        mPipeline.offer(new byte[]{(byte) frame}, 640, 480, 0, null);
+    }
+
+    @Test
+    public void testOldestFramesAreDropped() throws Exception {
+        // the first frame is being sent, the next ones wait in the queue
+        offer(0);
+        assertTrue(mSenderBlocked.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; i++) {
+            offer(i);
+        }
+        assertEquals(8, mPipeline.getDroppedCount());
+
+        mUnblockSender.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mPipeline.getSentCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // the most recent frames are sent, in order
+        assertEquals(3, mSent.size());
+        assertEquals(Integer.valueOf(0), mSent.get(0));
+        assertEquals(Integer.valueOf(9), mSent.get(1));
+        assertEquals(Integer.valueOf(10), mSent.get(2));
+        assertEquals(3, mPipeline.getSentCount());
+        assertTrue(mPipeline.getMaxLatencyNs() >= mPipeline.getAverageLatencyNs());
+        assertTrue(mPipeline.getAverageLatencyNs() > 0);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.smartlist;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cx.ring.model.CallContact;
+import cx.ring.utils.MicroBenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Measures the search of an address book of 10k and 100k contacts with {@link SortedSmartList#search},
+ * the scan of the normalized names, usernames and Ring ids kept next to the rows.
+ */
+public class SortedSmartListBenchmark {
+
+    private static final String[] FIRST_NAMES = {"alice", "bob", "charlotte", "david", "émilie", "françois",
+            "gabriel", "hélène", "isabelle", "julien", "karim", "léa", "mathieu", "nadia", "olivier", "pierre"};
+    private static final String[] LAST_NAMES = {"martin", "bernard", "dubois", "thomas", "robert", "richard",
+            "petit", "durand", "leroy", "moreau", "simon", "laurent", "lefebvre", "michel", "garcia", "roux"};
+    private static final String[] QUERIES = {"a", "ma", "mar", "helene", "lefeb", "julien ro", "user12", "3f2a"};
+
+    private static SmartListViewModel row(Random random, int i) {
+        String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " "
+                + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " " + random.nextInt(1000);
+        String ringId = String.format("%08x%032x", random.nextInt(), (long) i);
+        SmartListViewModel row = new SmartListViewModel("ring:" + ringId, CallContact.Status.CONFIRMED, name, null,
+                random.nextInt(1000000) * 1000L, SmartListViewModel.TYPE_INCOMING_MESSAGE, "", false);
+        row.setUsername(random.nextBoolean() ? "user" + i : null);
+        return row;
+    }
+
+    private static List<SmartListViewModel> generate(int count) {
+        Random random = new Random(count);
+        List<SmartListViewModel> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(row(random, i));
+        }
+        return rows;
+    }
+
+    private static void benchmark(int count, int operations) {
+        final List<SmartListViewModel> rows = generate(count);
+
+        MicroBenchmark build = new MicroBenchmark(1, 3, 1);
+        build.measure("setAll of " + count, () -> new SortedSmartList().setAll(rows));
+
+        final SortedSmartList smartList = new SortedSmartList();
+        smartList.setAll(rows);
+        MicroBenchmark benchmark = new MicroBenchmark(3, 5, operations);
+        final int[] found = new int[1];
+        for (final String query : QUERIES) {
+            benchmark.measure(count + " search '" + query + "'", () -> found[0] = smartList.search(query).size());
+        }
+        benchmark.measure(count + " snapshot search 'helene'", () -> found[0] = smartList.snapshot().search("helene").size());
+        final Random random = new Random(1);
+        benchmark.measure(count + " row update", () -> {
+            SmartListViewModel updated = new SmartListViewModel(rows.get(random.nextInt(rows.size())));
+            updated.setContactName(updated.getContactName() + " updated");
+            smartList.put(updated);
+        });
+        assertEquals(count, smartList.size());
+        assertFalse(smartList.search("user1").isEmpty());
+    }
+
+    @Test
+    public void benchmark10k() {
+        benchmark(10000, 100);
+    }
+
+    @Test
+    public void benchmark100k() {
+        benchmark(100000, 10);
+    }
+}
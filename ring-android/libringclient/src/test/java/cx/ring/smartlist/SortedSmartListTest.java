@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.smartlist;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cx.ring.model.CallContact;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SortedSmartListTest {
+
+    private static String ringUri(int i) {
+        return String.format("ring:%040x", i);
+    }
+
+    private static SmartListViewModel row(int i, long time) {
+        return new SmartListViewModel(ringUri(i), CallContact.Status.CONFIRMED, "contact" + (i % 10), null,
+                time, SmartListViewModel.TYPE_INCOMING_MESSAGE, "", false);
+    }
+
+    @Test
+    public void testIncrementalUpdatesKeepTheOrder() {
+        Random random = new Random(7);
+        SortedSmartList smartList = new SortedSmartList();
+        List<SmartListViewModel> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            rows.add(row(i, random.nextInt(1000) * 1000L));
+        }
+        smartList.setAll(rows);
+        Collections.sort(rows, new SmartListViewModel.SmartListComparator());
+        assertEquals(rows, smartList.getList());
+
+        for (int i = 0; i < 2000; i++) {
+            int contact = random.nextInt(600);
+            SmartListViewModel previous = smartList.get(ringUri(contact));
+            SmartListViewModel updated = row(contact, random.nextInt(2000) * 1000L);
+            updated.setHasOngoingCall(random.nextInt(50) == 0);
+
+            SortedSmartList.Delta delta = smartList.put(updated);
+            assertEquals(previous == null ? -1 : rows.indexOf(previous), delta.from);
+            if (previous != null) {
+                rows.remove(previous);
+            }
+            rows.add(updated);
+            Collections.sort(rows, new SmartListViewModel.SmartListComparator());
+            assertEquals(rows.indexOf(updated), delta.to);
+            assertEquals(rows, smartList.getList());
+        }
+
+        // the key does not depend on the representation of the Ring id
+        SmartListViewModel first = smartList.getList().get(0);
+        assertSame(first, smartList.get(first.getUuid().substring("ring:".length())));
+
+        SortedSmartList.Delta removed = smartList.remove(first.getUuid());
+        assertEquals(0, removed.from);
+        assertNull(smartList.get(first.getUuid()));
+        assertEquals(rows.size() - 1, smartList.size());
+    }
+
+    @Test
+    public void testSearch() {
+        SortedSmartList smartList = new SortedSmartList();
+        List<SmartListViewModel> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(row(i, i * 1000L));
+        }
+        SmartListViewModel helene = row(20, 500);
+        helene.setContactName("Hélène Dupré");
+        helene.setUsername("hdupre42");
+        rows.add(helene);
+        smartList.setAll(rows);
+
+        // substring of the name, ignoring case and accents
+        assertEquals(Collections.singletonList(helene), smartList.search("helene"));
+        assertEquals(Collections.singletonList(helene), smartList.search("DUPRÉ"));
+        assertEquals(Collections.singletonList(helene), smartList.search("l"));
+        assertTrue(smartList.search("helena").isEmpty());
+        // registered username and Ring id, not across them
+        assertEquals(Collections.singletonList(helene), smartList.search("HDupre4"));
+        assertEquals(Collections.singletonList(helene), smartList.search("0014"));
+        assertTrue(smartList.search("dupré hdupre").isEmpty());
+        SortedSmartList.Snapshot snapshot = smartList.snapshot();
+        // in the order of the list
+        List<SmartListViewModel> found = smartList.search("contact1");
+        assertEquals(2, found.size());
+        assertEquals("contact1", found.get(0).getContactName());
+        assertTrue(found.get(0).getLastInteractionTime() > found.get(1).getLastInteractionTime());
+
+        // the names follow the updates of the rows
+        SmartListViewModel renamed = new SmartListViewModel(helene);
+        renamed.setContactName("Hélène Martin");
+        renamed.setLastInteraction(50000, SmartListViewModel.TYPE_INCOMING_MESSAGE, "");
+        smartList.put(renamed);
+        assertTrue(smartList.search("helene dupre").isEmpty());
+        assertEquals(Collections.singletonList(renamed), smartList.search("martin"));
+        assertEquals(Collections.singletonList(renamed), smartList.search("hdupre42"));
+        SmartListViewModel registered = new SmartListViewModel(renamed);
+        registered.setUsername("hmartin");
+        smartList.put(registered);
+        assertTrue(smartList.search("hdupre42").isEmpty());
+        assertEquals(Collections.singletonList(registered), smartList.search("hmartin"));
+        renamed = registered;
+        smartList.put(row(1, 60000));
+        assertEquals(Collections.singletonList(renamed), smartList.search("martin"));
+        smartList.remove(renamed.getUuid());
+        assertTrue(smartList.search("martin").isEmpty());
+        assertEquals(2, smartList.search("contact1").size());
+
+        // the snapshot is not affected by the updates
+        assertEquals(Collections.singletonList(helene), snapshot.search("dupre"));
+        assertTrue(snapshot.search("martin").isEmpty());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Minimal JMH style harness for the unit test benchmarks: warmup iterations, then measured iterations
+ * reported in ns/op, and allocated bytes per operation when the JVM reports them.
+ */
+public class MicroBenchmark {
+
+    public interface Operation {
+        void run();
+    }
+
+    public static class Result {
+        public final double nsPerOp;
+        public final double bestNsPerOp;
+        public final double bytesPerOp;
+
+        Result(double nsPerOp, double bestNsPerOp, double bytesPerOp) {
+            this.nsPerOp = nsPerOp;
+            this.bestNsPerOp = bestNsPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    private final int mWarmupIterations;
+    private final int mMeasureIterations;
+    private final int mOperations;
+
+    /**
+     * @param operations number of operations per iteration
+     */
+    public MicroBenchmark(int warmupIterations, int measureIterations, int operations) {
+        mWarmupIterations = warmupIterations;
+        mMeasureIterations = measureIterations;
+        mOperations = operations;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, or -1 if not supported by the JVM
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public Result measure(String name, Operation operation) {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            for (int j = 0; j < mOperations; j++) {
+                operation.run();
+            }
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        long allocatedStart = getAllocatedBytes();
+        for (int i = 0; i < mMeasureIterations; i++) {
+            long start = System.nanoTime();
+            for (int j = 0; j < mOperations; j++) {
+                operation.run();
+            }
+            long duration = System.nanoTime() - start;
+            best = Math.min(best, duration);
+            total += duration;
+        }
+        long allocated = getAllocatedBytes() - allocatedStart;
+
+        long operations = (long) mMeasureIterations * mOperations;
+        Result result = new Result((double) total / operations, (double) best / mOperations,
+                allocatedStart < 0 ? Double.NaN : (double) allocated / operations);
+        System.out.println(String.format("%-45s avg %8.1f ns/op, best %8.1f ns/op, %7.1f B/op",
+                name, result.nsPerOp, result.bestNsPerOp, result.bytesPerOp));
+        return result;
+    }
+
+    /**
+     * @return the total number of operations run by measure(), warmup included
+     */
+    public long getTotalOperations() {
+        return (long) (mWarmupIterations + mMeasureIterations) * mOperations;
+    }
+}
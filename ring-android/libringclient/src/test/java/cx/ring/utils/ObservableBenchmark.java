@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.utils;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import cx.ring.model.ServiceEvent;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the cost of a notification dispatched to 50 observers, with {@link MicroBenchmark}.
+ * The previous implementation, copying the observer list on each notification, is measured as a reference.
+ */
+public class ObservableBenchmark {
+
+    private static final int OBSERVERS = 50;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 10;
+    private static final int OPERATIONS = 200000;
+
+    private static class CountingObserver implements Observer<ServiceEvent> {
+        int mCount = 0;
+
+        @Override
+        public void update(Observable observable, ServiceEvent event) {
+            mCount++;
+        }
+    }
+
+    /**
+     * Dispatch of the previous Observable implementation
+     */
+    private static class LegacyObservable extends Observable {
+        private final List<WeakReference<Observer>> mLegacyObservers = new ArrayList<>();
+        private boolean mLegacyChanged;
+
+        void addLegacyObserver(Observer observer) {
+            mLegacyObservers.add(new WeakReference<>(observer));
+        }
+
+        synchronized void setLegacyChanged() {
+            mLegacyChanged = true;
+        }
+
+        synchronized void clearLegacyChanged() {
+            mLegacyChanged = false;
+        }
+
+        void notifyLegacyObservers(Object argument) {
+            if (!mLegacyChanged) {
+                return;
+            }
+            List<WeakReference<Observer>> notifyObservers = new ArrayList<>(mLegacyObservers);
+            for (WeakReference<Observer> weakObserver : notifyObservers) {
+                final Observer realObserver = weakObserver.get();
+                if (realObserver != null) {
+                    realObserver.update(this, argument);
+                }
+            }
+            clearLegacyChanged();
+        }
+    }
+
+    @Test
+    public void benchmarkDispatch() {
+        final ServiceEvent event = new ServiceEvent(ServiceEvent.EventType.INCOMING_MESSAGE);
+        List<CountingObserver> observers = new ArrayList<>();
+        final LegacyObservable legacy = new LegacyObservable();
+        final Observable observable = new Observable();
+        final Observable typed = new Observable();
+        for (int i = 0; i < OBSERVERS; i++) {
+            CountingObserver observer = new CountingObserver();
+            observers.add(observer);
+            legacy.addLegacyObserver(observer);
+            observable.addObserver(observer);
+            // only one observer in ten is interested in incoming messages
+            if (i % 10 == 0) {
+                typed.addObserver(observer, ServiceEvent.EventType.INCOMING_MESSAGE);
+            } else {
+                typed.addObserver(observer, ServiceEvent.EventType.CALL_STATE_CHANGED);
+            }
+        }
+
+        MicroBenchmark benchmark = new MicroBenchmark(WARMUP_ITERATIONS, MEASURE_ITERATIONS, OPERATIONS);
+        benchmark.measure("legacy copy and dispatch", () -> {
+            legacy.setLegacyChanged();
+            legacy.notifyLegacyObservers(event);
+        });
+        benchmark.measure("copy-on-write dispatch", () -> {
+            observable.setChanged();
+            observable.notifyObservers(event);
+        });
+        benchmark.measure("typed dispatch (5 of 50 observers)", () -> {
+            typed.setChanged();
+            typed.notifyObservers(event);
+        });
+
+        long expected = 2L * benchmark.getTotalOperations();
+        for (int i = 0; i < OBSERVERS; i++) {
+            long typedCalls = i % 10 == 0 ? benchmark.getTotalOperations() : 0;
+            assertEquals(expected + typedCalls, observers.get(i).mCount);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.utils;
+
+import org.junit.Test;
+
+import cx.ring.model.ServiceEvent;
+
+import static org.junit.Assert.assertEquals;
+
+public class ObservableTest {
+
+    private static class CountingObserver implements Observer<ServiceEvent> {
+        int mCount = 0;
+
+        @Override
+        public void update(Observable observable, ServiceEvent event) {
+            mCount++;
+        }
+    }
+
+    @Test
+    public void testTypedSubscription() {
+        Observable observable = new Observable();
+        CountingObserver all = new CountingObserver();
+        CountingObserver calls = new CountingObserver();
+        observable.addObserver(all);
+        observable.addObserver(calls, ServiceEvent.EventType.CALL_STATE_CHANGED, ServiceEvent.EventType.INCOMING_CALL);
+
+        observable.setChanged();
+        observable.notifyObservers(new ServiceEvent(ServiceEvent.EventType.INCOMING_CALL));
+        observable.setChanged();
+        observable.notifyObservers(new ServiceEvent(ServiceEvent.EventType.INCOMING_MESSAGE));
+        observable.setChanged();
+        observable.notifyObservers();
+        // not changed: not dispatched
+        observable.notifyObservers(new ServiceEvent(ServiceEvent.EventType.CALL_STATE_CHANGED));
+
+        assertEquals(3, all.mCount);
+        assertEquals(1, calls.mCount);
+
+        observable.removeObserver(calls);
+        assertEquals(1, observable.countObservers());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2004-2018 Savoir-faire Linux Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package cx.ring.utils;
+
+import cx.ring.services.LogService;
+
+/**
+ * Prints the logs of the services on the standard outputs, for the unit tests
+ */
+public class TestLogService implements LogService {
+
+    public static void install() {
+        Log.injectLogService(new TestLogService());
+    }
+
+    private static void print(String level, String tag, String message, Throwable e) {
+        System.out.println(level + "/" + tag + ": " + message);
+        if (e != null) {
+            e.printStackTrace(System.out);
+        }
+    }
+
+    @Override
+    public void e(String tag, String message) {
+        print("E", tag, message, null);
+    }
+
+    @Override
+    public void d(String tag, String message) {
+        print("D", tag, message, null);
+    }
+
+    @Override
+    public void w(String tag, String message) {
+        print("W", tag, message, null);
+    }
+
+    @Override
+    public void i(String tag, String message) {
+        print("I", tag, message, null);
+    }
+
+    @Override
+    public void e(String tag, String message, Throwable e) {
+        print("E", tag, message, e);
+    }
+
+    @Override
+    public void d(String tag, String message, Throwable e) {
+        print("D", tag, message, e);
+    }
+
+    @Override
+    public void w(String tag, String message, Throwable e) {
+        print("W", tag, message, e);
+    }
+
+    @Override
+    public void i(String tag, String message, Throwable e) {
+        print("I", tag, message, e);
+    }
+}
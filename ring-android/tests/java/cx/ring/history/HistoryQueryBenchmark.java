@@ -0,0 +1,106 @@
+package cx.ring.history;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import junit.framework.Assert;
+
+import cx.ring.model.HistoryText;
+
+/**
+ * Measures the per-contact history query latency over a generated history of 1M text messages,
+ * with the timestamp index only (database version 9) then with the composite indexes (version 10).
+ * <p/>
+ * To run this benchmark, you can type:
+ * adb shell am instrument -w \
+ * -e class cx.ring.history.HistoryQueryBenchmark \
+ * cx.ring.tests/android.test.InstrumentationTestRunner
+ */
+public class HistoryQueryBenchmark extends AndroidTestCase {
+
+    private static final String TAG = HistoryQueryBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 1000000;
+    private static final int ACCOUNT_COUNT = 2;
+    private static final int CONTACT_COUNT = 2000;
+    private static final int QUERY_COUNT = 200;
+
+    private static final String LAST_MESSAGE_QUERY = "SELECT * FROM `historytext` WHERE `accountID` = ? AND `number` = ? ORDER BY `TIMESTAMP` DESC LIMIT 1";
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE `historytext` (`accountID` VARCHAR , `callID` VARCHAR , " +
+                "`contactID` BIGINT , `contactKey` VARCHAR , `direction` INTEGER , " +
+                "`id` BIGINT , `message` VARCHAR , `number` VARCHAR , `read` SMALLINT , " +
+                "`TIMESTAMP` BIGINT , `state` VARCHAR , PRIMARY KEY (`id`) );");
+        mDatabase.execSQL("CREATE INDEX `historytext_TIMESTAMP_idx` ON `historytext` ( `TIMESTAMP` );");
+
+        SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO `historytext` " +
+                "(`id`, `accountID`, `number`, `direction`, `message`, `read`, `TIMESTAMP`, `state`) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        mDatabase.beginTransaction();
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < ROW_COUNT; i++) {
+                insert.bindLong(1, i);
+                insert.bindString(2, accountId(i % ACCOUNT_COUNT));
+                insert.bindString(3, contactNumber(i % CONTACT_COUNT));
+                insert.bindLong(4, 1 + i % 2);
+                insert.bindString(5, "message " + i);
+                insert.bindLong(6, 1);
+                insert.bindLong(7, now - (ROW_COUNT - i) * 1000L);
+                insert.bindString(8, "SENT");
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    public void testPerContactQueryLatency() throws Exception {
+        long before = measureLastMessageQueries();
+
+        for (String index : DatabaseHelper.HISTORY_INDEXES) {
+            mDatabase.execSQL(index);
+        }
+        long after = measureLastMessageQueries();
+
+        Log.i(TAG, "per-contact " + HistoryText.TABLE_NAME + " query over " + ROW_COUNT + " rows: "
+                + (before / QUERY_COUNT) + "us before, " + (after / QUERY_COUNT) + "us after composite indexes");
+        Assert.assertTrue(after < before);
+    }
+
+    private long measureLastMessageQueries() {
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            Cursor cursor = mDatabase.rawQuery(LAST_MESSAGE_QUERY, new String[]{accountId(i % ACCOUNT_COUNT), contactNumber(i * 7 % CONTACT_COUNT)});
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+        return (System.nanoTime() - start) / 1000L;
+    }
+
+    private static String accountId(int i) {
+        return "account" + i;
+    }
+
+    private static String contactNumber(int i) {
+        return String.format("ring:%040x", i);
+    }
+}